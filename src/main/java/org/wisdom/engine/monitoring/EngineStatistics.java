@@ -0,0 +1,94 @@
+/*
+ * #%L
+ * Wisdom-Framework
+ * %%
+ * Copyright (C) 2013 - 2014 Wisdom Framework
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.wisdom.engine.monitoring;
+
+import java.util.Map;
+
+/**
+ * Exposes statistics about the Netty engine. The engine publishes this service so monitoring tools can read the
+ * metrics at runtime. All methods return a snapshot, i.e. an immutable map computed when the method is called.
+ */
+public interface EngineStatistics {
+
+    /**
+     * Gets the statistics of the buffer allocator used by the engine: type of allocator, number of arenas, memory
+     * held by the heap and direct arenas, and chunk usage.
+     *
+     * @return the allocator statistics, empty if the server is not started.
+     */
+    Map<String, Object> allocator();
+
+    /**
+     * Gets the network transport: the transport requested in the configuration, the transport actually used, whether
+     * the engine has fallen back to another transport, and the number of acceptors per port.
+     *
+     * @return the transport statistics, empty if the server is not started.
+     */
+    Map<String, Object> transport();
+
+    /**
+     * Gets the statistics about the connections: number of open connections, number of requests in progress,
+     * whether the engine is draining its connections, and the number of connections drained and force-closed by
+     * the last drain.
+     *
+     * @return the connection statistics, empty if the server is not started.
+     */
+    Map<String, Object> connections();
+
+    /**
+     * Gets the statistics of the executor running the route invocations outside of the event loops: number of
+     * threads, queue depth and capacity, submitted and rejected invocations, and time spent in the queue.
+     *
+     * @return the invocation statistics, empty if the server is not started.
+     */
+    Map<String, Object> invocation();
+
+    /**
+     * Gets the number of requests whose deadline has expired before their async result was computed, per route
+     * ({@literal METHOD url}).
+     *
+     * @return the timeout counts, empty if the server is not started or no request has timed out.
+     */
+    Map<String, Object> timeouts();
+
+    /**
+     * Gets the statistics of the admission control: current concurrency limit, requests in progress, and number of
+     * admitted, rejected and bypassed requests.
+     *
+     * @return the admission statistics, empty if the server is not started or the admission control is disabled.
+     */
+    Map<String, Object> admission();
+
+    /**
+     * Gets the statistics of each bulkhead (indexed by bulkhead name): threads, busy slots and utilization, queue
+     * depth and capacity, submitted and rejected requests.
+     *
+     * @return the bulkhead statistics, empty if the server is not started or no bulkhead is configured.
+     */
+    Map<String, Object> bulkheads();
+
+    /**
+     * Gets the statistics of the route cache: whether it is enabled, number of cached bound and unbound routes,
+     * hits and misses.
+     *
+     * @return the route cache statistics, empty if the server is not started.
+     */
+    Map<String, Object> routes();
+}
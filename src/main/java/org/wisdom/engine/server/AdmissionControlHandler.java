@@ -0,0 +1,183 @@
+/*
+ * #%L
+ * Wisdom-Framework
+ * %%
+ * Copyright (C) 2013 - 2014 Wisdom Framework
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.wisdom.engine.server;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.handler.codec.http.QueryStringDecoder;
+import io.netty.util.ReferenceCountUtil;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Rejects the requests exceeding the adaptive concurrency limit before any context is built. It sits in front of
+ * the {@link WisdomHandler}: each admitted request holds a permit until the last part of its response is written (or
+ * the connection is closed), including the requests pipelined on the same connection. Rejected requests receive a
+ * {@literal 503 Service Unavailable} response with a {@literal Retry-After} header, and their content is discarded.
+ * <p>
+ * The responses are written in the order of the requests, so the handler keeps the requests of the connection
+ * waiting for their response in a queue. The rejection of a pipelined request is written once the responses to the
+ * previous requests are written.
+ */
+public class AdmissionControlHandler extends ChannelDuplexHandler {
+
+    private final AdmissionLimiter limiter;
+
+    /**
+     * The requests of the connection waiting for their response, in order.
+     */
+    private final Deque<Pending> requests = new ArrayDeque<>();
+
+    /**
+     * Whether the content of the current request is discarded (the request has been rejected).
+     */
+    private boolean discarding;
+
+    /**
+     * Creates the handler.
+     *
+     * @param limiter the limiter shared by all the connections
+     */
+    public AdmissionControlHandler(AdmissionLimiter limiter) {
+        this.limiter = limiter;
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (msg instanceof HttpRequest) {
+            HttpRequest request = (HttpRequest) msg;
+            discarding = false;
+            if (limiter.isBypassed(new QueryStringDecoder(request.getUri()).path())) {
+                requests.add(new Pending(false, null, true));
+            } else if (limiter.tryAcquire()) {
+                requests.add(new Pending(true, null, true));
+            } else {
+                ReferenceCountUtil.release(msg);
+                discarding = true;
+                reject(ctx, request);
+                return;
+            }
+        } else if (discarding && msg instanceof HttpContent) {
+            ReferenceCountUtil.release(msg);
+            if (msg instanceof LastHttpContent) {
+                discarding = false;
+            }
+            return;
+        }
+        ctx.fireChannelRead(msg);
+    }
+
+    private void reject(ChannelHandlerContext ctx, HttpRequest request) {
+        FullHttpResponse response = new DefaultFullHttpResponse(request.getProtocolVersion(),
+                HttpResponseStatus.SERVICE_UNAVAILABLE, Unpooled.EMPTY_BUFFER);
+        response.headers().set(HttpHeaders.Names.RETRY_AFTER, limiter.retryAfter());
+        response.headers().set(HttpHeaders.Names.CONTENT_LENGTH, 0);
+        boolean keepAlive = HttpHeaders.isKeepAlive(request);
+        if (keepAlive) {
+            response.headers().set(HttpHeaders.Names.CONNECTION, HttpHeaders.Values.KEEP_ALIVE);
+        }
+        if (requests.isEmpty()) {
+            writeRejection(ctx, response, keepAlive);
+            ctx.flush();
+        } else {
+            // Written after the responses to the previous requests.
+            requests.add(new Pending(false, response, keepAlive));
+        }
+    }
+
+    private static void writeRejection(ChannelHandlerContext ctx, FullHttpResponse response, boolean keepAlive) {
+        ChannelFuture future = ctx.write(response);
+        if (!keepAlive) {
+            future.addListener(ChannelFutureListener.CLOSE);
+        }
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        // Full responses are also LastHttpContent, so this covers the full and the chunked responses. The interim
+        // 100 Continue response does not complete the request.
+        if (msg instanceof LastHttpContent && !isContinue(msg) && !requests.isEmpty()) {
+            ctx.write(msg, promise);
+            Pending completed = requests.poll();
+            if (completed.permit) {
+                limiter.release(System.nanoTime() - completed.start);
+            }
+            // The rejections queued behind the completed request are written (and flushed with the response).
+            while (!requests.isEmpty() && requests.peek().rejection != null) {
+                Pending rejected = requests.poll();
+                writeRejection(ctx, rejected.rejection, rejected.keepAlive);
+            }
+            return;
+        }
+        ctx.write(msg, promise);
+    }
+
+    private static boolean isContinue(Object msg) {
+        return msg instanceof HttpResponse
+                && ((HttpResponse) msg).getStatus().code() == HttpResponseStatus.CONTINUE.code();
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        while (!requests.isEmpty()) {
+            Pending pending = requests.poll();
+            if (pending.permit) {
+                limiter.release(System.nanoTime() - pending.start);
+            }
+        }
+        ctx.fireChannelInactive();
+    }
+
+    /**
+     * A request waiting for its response.
+     */
+    private static final class Pending {
+        /**
+         * Whether the request holds a permit, {@literal false} for the bypassed and rejected requests.
+         */
+        private final boolean permit;
+        private final long start = System.nanoTime();
+        /**
+         * The rejection response, written once the previous responses are written, {@literal null} if the request
+         * is processed.
+         */
+        private final FullHttpResponse rejection;
+        private final boolean keepAlive;
+
+        Pending(boolean permit, FullHttpResponse rejection, boolean keepAlive) {
+            this.permit = permit;
+            this.rejection = rejection;
+            this.keepAlive = keepAlive;
+        }
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * #%L
+ * Wisdom-Framework
+ * %%
+ * Copyright (C) 2013 - 2014 Wisdom Framework
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.wisdom.engine.server;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.wisdom.api.configuration.ApplicationConfiguration;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An adaptive limit of the number of requests processed concurrently by the engine, shared by all the connections.
+ * <p>
+ * The limit follows an AIMD (additive increase, multiplicative decrease) policy: it grows by one when a request
+ * completes under the target latency while the limit is being used, and it is multiplied by the backoff ratio when
+ * a request completes above the target latency. The limiter is configured using:
+ * <ul>
+ * <li>{@literal netty.admission.enabled}: enables the admission control (disabled by default)</li>
+ * <li>{@literal netty.admission.initialLimit}, {@literal netty.admission.minLimit} and
+ * {@literal netty.admission.maxLimit}: the bounds of the limit (100, 10 and 1000 by default)</li>
+ * <li>{@literal netty.admission.latency}: the target latency in milliseconds (500 by default)</li>
+ * <li>{@literal netty.admission.backoff}: the decrease ratio, in ]0, 1[ (0.9 by default)</li>
+ * <li>{@literal netty.admission.retryAfter}: the value of the {@literal Retry-After} header of the rejections, in
+ * seconds (1 by default)</li>
+ * <li>{@literal netty.admission.bypass}: a comma-separated list of path prefixes never limited, such as health
+ * checks</li>
+ * </ul>
+ */
+public class AdmissionLimiter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger("wisdom-netty-engine");
+
+    private static final String PREFIX = "netty.admission.";
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final long targetLatency;
+    private final double backoff;
+    private final int retryAfter;
+    private final List<String> bypass;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong admitted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong bypassed = new AtomicLong();
+
+    /**
+     * The current limit, kept as a double so the multiplicative decrease does not get stuck on small values.
+     */
+    private double limit;
+    private volatile int currentLimit;
+
+    AdmissionLimiter(int initialLimit, int minLimit, int maxLimit, long targetLatencyMillis, double backoff,
+                     int retryAfter, List<String> bypass) {
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.targetLatency = TimeUnit.MILLISECONDS.toNanos(targetLatencyMillis);
+        this.backoff = backoff;
+        this.retryAfter = retryAfter;
+        this.bypass = ImmutableList.copyOf(bypass);
+        this.limit = Math.min(maxLimit, Math.max(minLimit, initialLimit));
+        this.currentLimit = (int) limit;
+    }
+
+    /**
+     * Creates the limiter from the application configuration.
+     *
+     * @param configuration the configuration
+     * @return the limiter, {@literal null} if the admission control is disabled
+     */
+    static AdmissionLimiter fromConfiguration(ApplicationConfiguration configuration) {
+        if (!configuration.getBooleanWithDefault(PREFIX + "enabled", false)) {
+            return null;
+        }
+        int min = Math.max(1, configuration.getIntegerWithDefault(PREFIX + "minLimit", 10));
+        int max = Math.max(min, configuration.getIntegerWithDefault(PREFIX + "maxLimit", 1000));
+        int initial = configuration.getIntegerWithDefault(PREFIX + "initialLimit", 100);
+        int latency = configuration.getIntegerWithDefault(PREFIX + "latency", 500);
+        if (latency <= 0) {
+            latency = 500;
+        }
+        int retryAfter = Math.max(0, configuration.getIntegerWithDefault(PREFIX + "retryAfter", 1));
+        double backoff = 0.9;
+        String value = configuration.get(PREFIX + "backoff");
+        if (value != null) {
+            try {
+                backoff = Double.parseDouble(value);
+            } catch (NumberFormatException e) { //NOSONAR
+                backoff = -1;
+            }
+            if (backoff <= 0 || backoff >= 1) {
+                LOGGER.warn("Invalid {}backoff value ({}), it must be in ]0, 1[, using 0.9", PREFIX, value);
+                backoff = 0.9;
+            }
+        }
+        List<String> bypass = ImmutableList.of();
+        String prefixes = configuration.get(PREFIX + "bypass");
+        if (prefixes != null) {
+            bypass = ImmutableList.copyOf(Splitter.on(',').trimResults().omitEmptyStrings().split(prefixes));
+        }
+        AdmissionLimiter limiter = new AdmissionLimiter(initial, min, max, latency, backoff, retryAfter, bypass);
+        LOGGER.info("Admission control enabled: initial limit {} in [{}, {}], target latency {} ms, backoff {}, " +
+                "bypass: {}", limiter.limit(), min, max, latency, backoff, bypass);
+        return limiter;
+    }
+
+    /**
+     * @param path the request path
+     * @return whether the requests on this path are not limited.
+     */
+    public boolean isBypassed(String path) {
+        for (String prefix : bypass) {
+            if (path.startsWith(prefix)) {
+                bypassed.incrementAndGet();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Tries to admit a request.
+     *
+     * @return {@literal true} if the request is admitted, in this case {@link #release(long)} must be called once
+     * the response is written, {@literal false} if the request must be rejected
+     */
+    public boolean tryAcquire() {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= currentLimit) {
+                rejected.incrementAndGet();
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                admitted.incrementAndGet();
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Releases an admitted request, and adapts the limit according to its latency.
+     *
+     * @param latency the latency of the request in nanoseconds
+     */
+    public void release(long latency) {
+        int current = inFlight.getAndDecrement();
+        synchronized (this) {
+            if (latency > targetLatency) {
+                limit = Math.max(minLimit, limit * backoff);
+            } else if (current * 2 >= currentLimit) {
+                // Only grow the limit when it is actually used.
+                limit = Math.min(maxLimit, limit + 1);
+            }
+            currentLimit = (int) limit;
+        }
+    }
+
+    /**
+     * @return the current limit.
+     */
+    public int limit() {
+        return currentLimit;
+    }
+
+    /**
+     * @return the value of the {@literal Retry-After} header sent with the rejections, in seconds.
+     */
+    public int retryAfter() {
+        return retryAfter;
+    }
+
+    /**
+     * @return the statistics of the limiter: current limit, requests in progress, admitted, rejected and bypassed
+     * requests.
+     */
+    public Map<String, Object> statistics() {
+        return ImmutableMap.<String, Object>of(
+                "limit", currentLimit,
+                "inFlight", inFlight.get(),
+                "admitted", admitted.get(),
+                "rejected", rejected.get(),
+                "bypassed", bypassed.get());
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * #%L
+ * Wisdom-Framework
+ * %%
+ * Copyright (C) 2013 - 2014 Wisdom Framework
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.wisdom.engine.server;
+
+import com.google.common.collect.ImmutableMap;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PoolArenaMetric;
+import io.netty.buffer.PoolChunkListMetric;
+import io.netty.buffer.PoolChunkMetric;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.wisdom.api.configuration.ApplicationConfiguration;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Creates the buffer allocator used by the engine and computes its statistics.
+ */
+final class Allocators {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger("wisdom-netty-engine");
+
+    private static final String KEY_ALLOCATOR = "netty.allocator";
+    private static final String KEY_DIRECT = "netty.allocator.direct";
+    private static final String KEY_HEAP_ARENAS = "netty.allocator.heapArenas";
+    private static final String KEY_DIRECT_ARENAS = "netty.allocator.directArenas";
+    private static final String KEY_PAGE_SIZE = "netty.allocator.pageSize";
+    private static final String KEY_CHUNK_SIZE = "netty.allocator.chunkSize";
+    private static final String KEY_TINY_CACHE = "netty.allocator.tinyCacheSize";
+    private static final String KEY_SMALL_CACHE = "netty.allocator.smallCacheSize";
+    private static final String KEY_NORMAL_CACHE = "netty.allocator.normalCacheSize";
+
+    private static final int DEFAULT_PAGE_SIZE = 8192;
+    private static final int DEFAULT_CHUNK_SIZE = DEFAULT_PAGE_SIZE << 11;
+    private static final int DEFAULT_TINY_CACHE = 512;
+    private static final int DEFAULT_SMALL_CACHE = 256;
+    private static final int DEFAULT_NORMAL_CACHE = 64;
+
+    private Allocators() {
+        //Unused
+    }
+
+    /**
+     * Creates the allocator from the application configuration. By default, a pooled allocator preferring direct
+     * buffers is used.
+     *
+     * @param configuration the configuration
+     * @param defaultArenas the number of arenas to use if not set, usually the number of worker threads so each
+     *                      event loop gets its own arena
+     * @return the allocator
+     */
+    static ByteBufAllocator fromConfiguration(ApplicationConfiguration configuration, int defaultArenas) {
+        String type = configuration.getWithDefault(KEY_ALLOCATOR, "pooled");
+        boolean direct = configuration.getBooleanWithDefault(KEY_DIRECT, true);
+        if ("unpooled".equalsIgnoreCase(type)) {
+            LOGGER.info("Buffer allocator: unpooled, prefer direct buffers: {}", direct);
+            return new UnpooledByteBufAllocator(direct);
+        }
+        if (type != null && !"pooled".equalsIgnoreCase(type)) {
+            LOGGER.warn("Unknown allocator type '{}', using the pooled allocator", type);
+        }
+
+        int heapArenas = positive(configuration, KEY_HEAP_ARENAS, defaultArenas);
+        int directArenas = positive(configuration, KEY_DIRECT_ARENAS, defaultArenas);
+        int pageSize = positive(configuration, KEY_PAGE_SIZE, DEFAULT_PAGE_SIZE);
+        int chunkSize = positive(configuration, KEY_CHUNK_SIZE, DEFAULT_CHUNK_SIZE);
+        if (Integer.bitCount(pageSize) != 1 || pageSize < 4096) {
+            LOGGER.warn("Invalid {} value ({}), it must be a power of 2 greater or equal to 4096, using {}",
+                    KEY_PAGE_SIZE, pageSize, DEFAULT_PAGE_SIZE);
+            pageSize = DEFAULT_PAGE_SIZE;
+        }
+        if (Integer.bitCount(chunkSize) != 1 || chunkSize < pageSize) {
+            LOGGER.warn("Invalid {} value ({}), it must be a power of 2 greater or equal to the page size, using {}",
+                    KEY_CHUNK_SIZE, chunkSize, DEFAULT_CHUNK_SIZE);
+            chunkSize = Math.max(DEFAULT_CHUNK_SIZE, pageSize);
+        }
+        // chunkSize = pageSize << maxOrder
+        int maxOrder = Integer.numberOfTrailingZeros(chunkSize) - Integer.numberOfTrailingZeros(pageSize);
+        if (maxOrder > 14) {
+            LOGGER.warn("The chunk size ({}) is too large for the page size ({}), using {}", chunkSize, pageSize,
+                    pageSize << 14);
+            maxOrder = 14;
+        }
+        int tinyCache = positiveOrZero(configuration, KEY_TINY_CACHE, DEFAULT_TINY_CACHE);
+        int smallCache = positiveOrZero(configuration, KEY_SMALL_CACHE, DEFAULT_SMALL_CACHE);
+        int normalCache = positiveOrZero(configuration, KEY_NORMAL_CACHE, DEFAULT_NORMAL_CACHE);
+
+        LOGGER.info("Buffer allocator: pooled, prefer direct buffers: {}, heap arenas: {}, direct arenas: {}, " +
+                        "page size: {}, chunk size: {}, thread-local caches (tiny/small/normal): {}/{}/{}",
+                direct, heapArenas, directArenas, pageSize, pageSize << maxOrder, tinyCache, smallCache,
+                normalCache);
+        return new PooledByteBufAllocator(direct, heapArenas, directArenas, pageSize, maxOrder,
+                tinyCache, smallCache, normalCache);
+    }
+
+    /**
+     * Computes the statistics of the given allocator.
+     *
+     * @param allocator the allocator, may be {@literal null} if the server is not started
+     * @return the statistics
+     */
+    static Map<String, Object> statistics(ByteBufAllocator allocator) {
+        if (allocator == null) {
+            return ImmutableMap.of();
+        }
+        ImmutableMap.Builder<String, Object> builder = ImmutableMap.builder();
+        builder.put("directBufferPooled", allocator.isDirectBufferPooled());
+        if (!(allocator instanceof PooledByteBufAllocator)) {
+            builder.put("type", "unpooled");
+            return builder.build();
+        }
+        PooledByteBufAllocator pooled = (PooledByteBufAllocator) allocator;
+        builder.put("type", "pooled");
+        builder.put("heapArenas", pooled.numHeapArenas());
+        builder.put("directArenas", pooled.numDirectArenas());
+        addArenaStatistics(builder, "heap", pooled.heapArenas());
+        addArenaStatistics(builder, "direct", pooled.directArenas());
+        return builder.build();
+    }
+
+    private static void addArenaStatistics(ImmutableMap.Builder<String, Object> builder, String prefix,
+                                           List<PoolArenaMetric> arenas) {
+        long chunks = 0;
+        long reserved = 0;
+        long used = 0;
+        long activeAllocations = 0;
+        for (PoolArenaMetric arena : arenas) {
+            activeAllocations += arena.numActiveAllocations();
+            for (PoolChunkListMetric list : arena.chunkLists()) {
+                for (PoolChunkMetric chunk : list) {
+                    chunks++;
+                    reserved += chunk.chunkSize();
+                    used += chunk.chunkSize() - chunk.freeBytes();
+                }
+            }
+        }
+        builder.put(prefix + ".chunks", chunks);
+        builder.put(prefix + ".reservedBytes", reserved);
+        builder.put(prefix + ".usedBytes", used);
+        builder.put(prefix + ".chunkUsage", reserved == 0 ? 0 : (int) (used * 100 / reserved));
+        builder.put(prefix + ".activeAllocations", activeAllocations);
+    }
+
+    private static int positive(ApplicationConfiguration configuration, String key, int defaultValue) {
+        int value = configuration.getIntegerWithDefault(key, defaultValue);
+        return value > 0 ? value : defaultValue;
+    }
+
+    private static int positiveOrZero(ApplicationConfiguration configuration, String key, int defaultValue) {
+        int value = configuration.getIntegerWithDefault(key, defaultValue);
+        return value >= 0 ? value : defaultValue;
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * #%L
+ * Wisdom-Framework
+ * %%
+ * Copyright (C) 2013 - 2014 Wisdom Framework
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.wisdom.engine.server;
+
+import com.google.common.base.Charsets;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
+/**
+ * Computes the number of processors the engine can really use. When running in a container, the CPU quota set by
+ * the cgroup (v1 or v2) may be much lower than the number of processors reported by the JVM. It also validates the
+ * I/O ratio of the event loops sized from these processors.
+ */
+final class AvailableProcessors {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger("wisdom-netty-engine");
+
+    private static final String CGROUP_V2_CPU_MAX = "/sys/fs/cgroup/cpu.max";
+    private static final String CGROUP_V1_QUOTA = "/sys/fs/cgroup/cpu/cpu.cfs_quota_us";
+    private static final String CGROUP_V1_PERIOD = "/sys/fs/cgroup/cpu/cpu.cfs_period_us";
+
+    /**
+     * The configuration key of the percentage of time the worker event loops spend on I/O.
+     */
+    static final String KEY_IO_RATIO = "netty.io.ratio";
+
+    /**
+     * The default I/O ratio (the Netty default).
+     */
+    static final int DEFAULT_IO_RATIO = 50;
+
+    private AvailableProcessors() {
+        //Unused
+    }
+
+    /**
+     * @return the number of usable processors, i.e. the minimum between the processors reported by the JVM and the
+     * cgroup CPU quota (rounded up). Always greater or equal to 1.
+     */
+    static int get() {
+        int processors = Runtime.getRuntime().availableProcessors();
+        int quota = readCgroupQuota();
+        if (quota > 0 && quota < processors) {
+            LOGGER.debug("CPU quota detected, using {} processor(s) instead of {}", quota, processors);
+            return quota;
+        }
+        return processors;
+    }
+
+    /**
+     * Validates the configured I/O ratio of the event loops. Values outside of [1, 100] are ignored with a warning.
+     *
+     * @param ratio the configured ratio
+     * @return the ratio to use
+     */
+    static int ioRatio(int ratio) {
+        if (ratio < 1 || ratio > 100) {
+            LOGGER.warn("Invalid {} value ({}), it must be in [1, 100], using the default ratio ({})", KEY_IO_RATIO,
+                    ratio, DEFAULT_IO_RATIO);
+            return DEFAULT_IO_RATIO;
+        }
+        return ratio;
+    }
+
+    private static int readCgroupQuota() {
+        try {
+            String v2 = readFirstLine(CGROUP_V2_CPU_MAX);
+            if (v2 != null) {
+                return parseCgroupV2(v2);
+            }
+            String quota = readFirstLine(CGROUP_V1_QUOTA);
+            String period = readFirstLine(CGROUP_V1_PERIOD);
+            if (quota != null && period != null) {
+                return parseCgroupV1(quota, period);
+            }
+        } catch (IOException | RuntimeException e) {
+            LOGGER.debug("Cannot read the cgroup CPU quota", e);
+        }
+        return -1;
+    }
+
+    /**
+     * Parses the content of the cgroup v2 {@literal cpu.max} file (for instance {@literal 200000 100000} or
+     * {@literal max 100000}).
+     *
+     * @param line the line
+     * @return the number of processors allowed by the quota, {@literal -1} if there is no limit
+     */
+    static int parseCgroupV2(String line) {
+        String[] segments = line.trim().split("\\s+");
+        if (segments.length != 2 || "max".equals(segments[0])) {
+            return -1;
+        }
+        return toProcessors(Long.parseLong(segments[0]), Long.parseLong(segments[1]));
+    }
+
+    /**
+     * Parses the content of the cgroup v1 {@literal cpu.cfs_quota_us} and {@literal cpu.cfs_period_us} files.
+     *
+     * @param quota  the quota ({@literal -1} means no limit)
+     * @param period the period
+     * @return the number of processors allowed by the quota, {@literal -1} if there is no limit
+     */
+    static int parseCgroupV1(String quota, String period) {
+        return toProcessors(Long.parseLong(quota.trim()), Long.parseLong(period.trim()));
+    }
+
+    private static int toProcessors(long quota, long period) {
+        if (quota <= 0 || period <= 0) {
+            return -1;
+        }
+        return (int) Math.max(1, (quota + period - 1) / period);
+    }
+
+    private static String readFirstLine(String path) throws IOException {
+        File file = new File(path);
+        if (!file.isFile()) {
+            return null;
+        }
+        List<String> lines = Files.readAllLines(file.toPath(), Charsets.UTF_8);
+        if (lines.isEmpty()) {
+            return null;
+        }
+        return lines.get(0);
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * #%L
+ * Wisdom-Framework
+ * %%
+ * Copyright (C) 2013 - 2014 Wisdom Framework
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.wisdom.engine.server;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.wisdom.api.configuration.ApplicationConfiguration;
+import org.wisdom.api.http.Status;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The bulkheads isolating groups of routes. Each bulkhead has its own bounded thread pool, so an expensive group of
+ * routes cannot consume the capacity used by the other routes. The invocation of the routes of a bulkhead, and the
+ * computation of their async results, are executed by the bulkhead pool.
+ * <p>
+ * Bulkheads are declared using {@literal netty.bulkheads}, a comma-separated list of names. Each bulkhead is
+ * configured using:
+ * <ul>
+ * <li>{@literal netty.bulkheads.<name>.paths}: the comma-separated path prefixes of the routes of the bulkhead
+ * (required)</li>
+ * <li>{@literal netty.bulkheads.<name>.maxConcurrent}: the number of requests processed concurrently (10 by
+ * default)</li>
+ * <li>{@literal netty.bulkheads.<name>.queue}: the number of requests waiting for a slot (0 by default)</li>
+ * <li>{@literal netty.bulkheads.<name>.rejectionStatus}: the status of the response sent when the bulkhead is
+ * full, {@literal 503} (the default) or {@literal 429}</li>
+ * </ul>
+ */
+public class Bulkheads {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger("wisdom-netty-engine");
+
+    private static final String PREFIX = "netty.bulkheads";
+
+    private static final int TOO_MANY_REQUESTS = 429;
+
+    private final List<Bulkhead> bulkheads;
+
+    Bulkheads(List<Bulkhead> bulkheads) {
+        this.bulkheads = ImmutableList.copyOf(bulkheads);
+    }
+
+    /**
+     * Reads the bulkheads from the application configuration.
+     *
+     * @param configuration the configuration
+     * @param daemon        whether the threads are daemon threads
+     * @return the bulkheads
+     * @throws IllegalArgumentException if a bulkhead has no path
+     */
+    static Bulkheads fromConfiguration(ApplicationConfiguration configuration, boolean daemon) {
+        List<Bulkhead> list = new ArrayList<>();
+        String names = configuration.get(PREFIX);
+        if (names != null) {
+            for (String name : Splitter.on(',').trimResults().omitEmptyStrings().split(names)) {
+                String prefix = PREFIX + "." + name;
+                String paths = configuration.get(prefix + ".paths");
+                if (paths == null) {
+                    throw new IllegalArgumentException("The bulkhead " + name + " has no path, set " + prefix
+                            + ".paths");
+                }
+                int threads = configuration.getIntegerWithDefault(prefix + ".maxConcurrent", 10);
+                if (threads <= 0) {
+                    threads = 10;
+                }
+                int queue = Math.max(0, configuration.getIntegerWithDefault(prefix + ".queue", 0));
+                int status = configuration.getIntegerWithDefault(prefix + ".rejectionStatus",
+                        Status.SERVICE_UNAVAILABLE);
+                if (status != Status.SERVICE_UNAVAILABLE && status != TOO_MANY_REQUESTS) {
+                    LOGGER.warn("Invalid rejection status for the bulkhead {} ({}), using 503", name, status);
+                    status = Status.SERVICE_UNAVAILABLE;
+                }
+                List<String> prefixes = ImmutableList.copyOf(Splitter.on(',').trimResults().omitEmptyStrings()
+                        .split(paths));
+                list.add(new Bulkhead(name, prefixes,
+                        new InvocationExecutor("wisdom-netty-bulkhead-" + name, threads, queue,
+                                ImmutableList.<String>of(), daemon),
+                        threads, status));
+                LOGGER.info("Bulkhead {} on {}: {} concurrent request(s), queue: {}, rejection status: {}", name,
+                        prefixes, threads, queue, status);
+            }
+        }
+        return new Bulkheads(list);
+    }
+
+    /**
+     * Finds the bulkhead of the routes serving the given path.
+     *
+     * @param path the path
+     * @return the bulkhead, {@literal null} if the path is not isolated
+     */
+    public Bulkhead find(String path) {
+        if (path == null) {
+            return null;
+        }
+        for (Bulkhead bulkhead : bulkheads) {
+            if (bulkhead.matches(path)) {
+                return bulkhead;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Stops the bulkhead threads.
+     */
+    public void shutdown() {
+        for (Bulkhead bulkhead : bulkheads) {
+            bulkhead.executor().shutdown();
+        }
+    }
+
+    /**
+     * @return the statistics of each bulkhead: pool statistics, utilization (ratio of busy slots) and rejection
+     * status.
+     */
+    public Map<String, Object> statistics() {
+        ImmutableMap.Builder<String, Object> builder = ImmutableMap.builder();
+        for (Bulkhead bulkhead : bulkheads) {
+            Map<String, Object> executor = bulkhead.executor().statistics();
+            Object active = executor.get("active");
+            double utilization = active == null ? 0.0 : ((Integer) active) / (double) bulkhead.maxConcurrent;
+            builder.put(bulkhead.name(), ImmutableMap.<String, Object>builder()
+                    .putAll(executor)
+                    .put("maxConcurrent", bulkhead.maxConcurrent)
+                    .put("utilization", utilization)
+                    .put("rejectionStatus", bulkhead.rejectionStatus())
+                    .build());
+        }
+        return builder.build();
+    }
+
+    /**
+     * A bulkhead.
+     */
+    public static final class Bulkhead {
+        private final String name;
+        private final List<String> prefixes;
+        private final InvocationExecutor executor;
+        private final int maxConcurrent;
+        private final int rejectionStatus;
+
+        Bulkhead(String name, List<String> prefixes, InvocationExecutor executor, int maxConcurrent,
+                 int rejectionStatus) {
+            this.name = name;
+            this.prefixes = prefixes;
+            this.executor = executor;
+            this.maxConcurrent = maxConcurrent;
+            this.rejectionStatus = rejectionStatus;
+        }
+
+        boolean matches(String path) {
+            for (String prefix : prefixes) {
+                if (path.startsWith(prefix)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * @return the name of the bulkhead.
+         */
+        public String name() {
+            return name;
+        }
+
+        /**
+         * @return the executor running the invocations and async results of the routes of the bulkhead.
+         */
+        public InvocationExecutor executor() {
+            return executor;
+        }
+
+        /**
+         * @return the status of the responses sent when the bulkhead is full.
+         */
+        public int rejectionStatus() {
+            return rejectionStatus;
+        }
+    }
+}
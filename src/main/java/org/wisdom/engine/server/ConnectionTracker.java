@@ -0,0 +1,145 @@
+/*
+ * #%L
+ * Wisdom-Framework
+ * %%
+ * Copyright (C) 2013 - 2014 Wisdom Framework
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.wisdom.engine.server;
+
+import com.google.common.collect.ConcurrentHashMultiset;
+import com.google.common.collect.Multiset;
+import io.netty.channel.Channel;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.DefaultChannelGroup;
+import io.netty.util.concurrent.DefaultPromise;
+import io.netty.util.concurrent.GlobalEventExecutor;
+import io.netty.util.concurrent.Promise;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps track of the open connections and of the connections having a request in progress (including the
+ * requests waiting for an async result). It is used to drain the connections when the server is stopped.
+ * <p>
+ * A request is in progress until the last write of its response is done, so a response still being sent to a slow
+ * client is not cut off by the drain. As the response to a request may still be written when the next pipelined
+ * request starts, the requests in progress are counted per connection.
+ */
+public class ConnectionTracker {
+
+    private final ChannelGroup connections = new DefaultChannelGroup("wisdom-connections",
+            GlobalEventExecutor.INSTANCE);
+
+    private final Multiset<Channel> busy = ConcurrentHashMultiset.create();
+
+    /**
+     * Completed once no request is in progress, created when the drain starts.
+     */
+    private volatile Promise<Void> idle;
+
+    /**
+     * Registers a newly accepted connection. It is automatically removed once closed.
+     *
+     * @param channel the channel
+     */
+    public void register(Channel channel) {
+        connections.add(channel);
+    }
+
+    /**
+     * Notifies that a request is being processed on the given channel.
+     *
+     * @param channel the channel
+     */
+    public void requestStarted(Channel channel) {
+        busy.add(channel);
+    }
+
+    /**
+     * Notifies that a request processed on the given channel is completed (response written or connection
+     * closed).
+     *
+     * @param channel the channel
+     */
+    public void requestCompleted(Channel channel) {
+        if (busy.remove(channel) && busy.isEmpty()) {
+            Promise<Void> promise = idle;
+            if (promise != null) {
+                promise.trySuccess(null);
+            }
+        }
+    }
+
+    /**
+     * Enters the drain mode. Responses written from now are sent with {@literal Connection: close}.
+     */
+    public void startDraining() {
+        if (idle == null) {
+            idle = new DefaultPromise<>(GlobalEventExecutor.INSTANCE);
+        }
+        // The last request may have completed before the promise was published.
+        if (busy.isEmpty()) {
+            idle.trySuccess(null);
+        }
+    }
+
+    /**
+     * Waits until no request is in progress. Must be called once the drain has started.
+     *
+     * @param timeout the maximum time to wait
+     * @param unit    the unit of the timeout
+     * @return {@literal true} if no request is in progress, {@literal false} if the timeout has expired
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public boolean awaitIdle(long timeout, TimeUnit unit) throws InterruptedException {
+        return idle.await(timeout, unit);
+    }
+
+    /**
+     * @return whether the server is draining its connections.
+     */
+    public boolean isDraining() {
+        return idle != null;
+    }
+
+    /**
+     * @return the number of open connections.
+     */
+    public int connections() {
+        return connections.size();
+    }
+
+    /**
+     * @return the number of requests in progress.
+     */
+    public int inFlight() {
+        return busy.size();
+    }
+
+    /**
+     * @return the number of connections having at least a request in progress.
+     */
+    public int busyConnections() {
+        return busy.elementSet().size();
+    }
+
+    /**
+     * @return the group of open connections.
+     */
+    ChannelGroup group() {
+        return connections;
+    }
+}
@@ -19,23 +19,27 @@
  */
 package org.wisdom.engine.server;
 
-import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
 import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.util.concurrent.Future;
 import org.apache.felix.ipojo.annotations.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.wisdom.akka.AkkaSystemService;
+import org.wisdom.api.Controller;
 import org.wisdom.api.configuration.ApplicationConfiguration;
 import org.wisdom.api.content.ContentEngine;
+import org.wisdom.api.content.ContentSerializer;
 import org.wisdom.api.crypto.Crypto;
 import org.wisdom.api.engine.WisdomEngine;
 import org.wisdom.api.http.websockets.WebSocketDispatcher;
 import org.wisdom.api.http.websockets.WebSocketListener;
 import org.wisdom.api.router.Router;
+import org.wisdom.engine.monitoring.EngineStatistics;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * The main entry point of the Wisdom Netty Engine.
@@ -43,7 +47,7 @@ import java.util.*;
 @Component
 @Provides
 @Instantiate
-public class Dispatcher implements WebSocketDispatcher, WisdomEngine {
+public class Dispatcher implements WebSocketDispatcher, WisdomEngine, EngineStatistics {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(Dispatcher.class);
 
@@ -62,6 +66,13 @@ public class Dispatcher implements WebSocketDispatcher, WisdomEngine {
      */
     private Map<String, List<ChannelHandlerContext>> sockets = new HashMap<>();
 
+    /**
+     * Whether the engine is ready, i.e. all its listeners are bound. Published as a service property so health
+     * checks and dependent components can wait for it.
+     */
+    @ServiceProperty(name = "ready", value = "false")
+    boolean ready;
+
     /**
      * The router service.
      */
@@ -92,13 +103,26 @@ public class Dispatcher implements WebSocketDispatcher, WisdomEngine {
     @Requires
     AkkaSystemService system;
 
+    /**
+     * The accessor shared by the handlers, {@literal null} until the server is started.
+     */
+    private volatile ServiceAccessor accessor;
+
+    /**
+     * The registered controllers, tracked even before the server is started. The route cache checks them, so the
+     * cached routes of a departed controller are never invoked.
+     */
+    private final Set<Controller> controllers =
+            Collections.newSetFromMap(new ConcurrentHashMap<Controller, Boolean>());
+
     /**
      * Starts the server.
      */
     @Validate
     public void start() {
-        ServiceAccessor accessor = new ServiceAccessor(crypto, configuration, router,
+        accessor = new ServiceAccessor(crypto, configuration, router,
                 parsers, system, this); //NOSONAR
+        accessor.getRoutes().track(controllers);
         wisdomServer = new WisdomServer(accessor);
         // The starting is made in another thread:
         new Thread(new Runnable() {
@@ -108,11 +132,80 @@ public class Dispatcher implements WebSocketDispatcher, WisdomEngine {
             public void run() {
                 try {
                     wisdomServer.start();
+                    ready = wisdomServer.ready().isSuccess();
                 } catch (InterruptedException e) {
                     LOGGER.error("Cannot start the Wisdom server", e);
                 }
             }
-        }).start();
+        }, "wisdom-netty-startup").start();
+    }
+
+    /**
+     * Gets the future completed once all the listeners of the engine are bound.
+     *
+     * @return the future, {@literal null} if the engine has not been started
+     */
+    public Future<Void> ready() {
+        if (wisdomServer == null) {
+            return null;
+        }
+        return wisdomServer.ready();
+    }
+
+    /**
+     * A content serializer arrives: the memoized serializer choices are forgotten.
+     *
+     * @param serializer the serializer
+     */
+    @Bind(aggregate = true, optional = true)
+    public void bindSerializer(ContentSerializer serializer) {
+        invalidateSerializers();
+    }
+
+    /**
+     * A content serializer leaves: the memoized serializer choices are forgotten.
+     *
+     * @param serializer the serializer
+     */
+    @Unbind
+    public void unbindSerializer(ContentSerializer serializer) {
+        invalidateSerializers();
+    }
+
+    /**
+     * A controller arrives: the resolved routes are forgotten.
+     *
+     * @param controller the controller
+     */
+    @Bind(aggregate = true, optional = true)
+    public void bindController(Controller controller) {
+        controllers.add(controller);
+        invalidateRoutes();
+    }
+
+    /**
+     * A controller leaves: the resolved routes are forgotten.
+     *
+     * @param controller the controller
+     */
+    @Unbind
+    public void unbindController(Controller controller) {
+        controllers.remove(controller);
+        invalidateRoutes();
+    }
+
+    private void invalidateRoutes() {
+        ServiceAccessor current = accessor;
+        if (current != null) {
+            current.getRoutes().invalidate();
+        }
+    }
+
+    private void invalidateSerializers() {
+        ServiceAccessor current = accessor;
+        if (current != null) {
+            current.getSerializers().invalidate();
+        }
     }
 
     /**
@@ -120,6 +213,7 @@ public class Dispatcher implements WebSocketDispatcher, WisdomEngine {
      */
     @Invalidate
     public void stop() {
+        ready = false;
         wisdomServer.stop();
         sockets.clear();
         listeners.clear();
@@ -165,7 +259,7 @@ public class Dispatcher implements WebSocketDispatcher, WisdomEngine {
             }
         }
         for (ChannelHandlerContext channel : channels) {
-            channel.writeAndFlush(new BinaryWebSocketFrame(Unpooled.copiedBuffer(data)));
+            channel.writeAndFlush(new BinaryWebSocketFrame(channel.alloc().buffer(data.length).writeBytes(data)));
         }
     }
 
@@ -310,7 +404,7 @@ public class Dispatcher implements WebSocketDispatcher, WisdomEngine {
         }
         for (ChannelHandlerContext channel : channels) {
             if (client.equals(id(channel))) {
-                channel.writeAndFlush(new BinaryWebSocketFrame(Unpooled.copiedBuffer(message)));
+                channel.writeAndFlush(new BinaryWebSocketFrame(channel.alloc().buffer(message.length).writeBytes(message)));
             }
         }
     }
@@ -356,4 +450,93 @@ public class Dispatcher implements WebSocketDispatcher, WisdomEngine {
     public int httpsPort() {
         return wisdomServer.httpsPort();
     }
+
+    /**
+     * @return the transport requested and the transport actually used by the engine.
+     */
+    @Override
+    public Map<String, Object> transport() {
+        if (wisdomServer == null) {
+            return Collections.emptyMap();
+        }
+        return wisdomServer.transportStatistics();
+    }
+
+    /**
+     * @return the statistics of the buffer allocator used by the engine.
+     */
+    @Override
+    public Map<String, Object> allocator() {
+        if (wisdomServer == null) {
+            return Collections.emptyMap();
+        }
+        return wisdomServer.allocatorStatistics();
+    }
+
+    /**
+     * @return the statistics about the connections handled by the engine.
+     */
+    @Override
+    public Map<String, Object> connections() {
+        if (wisdomServer == null) {
+            return Collections.emptyMap();
+        }
+        return wisdomServer.connectionStatistics();
+    }
+
+    /**
+     * @return the statistics of the executor running the route invocations.
+     */
+    @Override
+    public Map<String, Object> invocation() {
+        if (wisdomServer == null) {
+            return Collections.emptyMap();
+        }
+        return wisdomServer.invocationStatistics();
+    }
+
+    /**
+     * @return the number of requests which have timed out, per route.
+     */
+    @Override
+    public Map<String, Object> timeouts() {
+        if (wisdomServer == null) {
+            return Collections.emptyMap();
+        }
+        return wisdomServer.timeoutStatistics();
+    }
+
+    /**
+     * @return the statistics of the admission control.
+     */
+    @Override
+    public Map<String, Object> admission() {
+        if (wisdomServer == null) {
+            return Collections.emptyMap();
+        }
+        return wisdomServer.admissionStatistics();
+    }
+
+    /**
+     * @return the statistics of the bulkheads.
+     */
+    @Override
+    public Map<String, Object> bulkheads() {
+        if (wisdomServer == null) {
+            return Collections.emptyMap();
+        }
+        return wisdomServer.bulkheadStatistics();
+    }
+
+    /**
+     * @return the statistics of the route cache.
+     */
+    @Override
+    public Map<String, Object> routes() {
+        ServiceAccessor current = accessor;
+        if (current == null) {
+            return Collections.emptyMap();
+        }
+        return current.getRoutes().statistics();
+    }
 }
@@ -0,0 +1,97 @@
+/*
+ * #%L
+ * Wisdom-Framework
+ * %%
+ * Copyright (C) 2013 - 2014 Wisdom Framework
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.wisdom.engine.server;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerDomainSocketChannel;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.unix.DomainSocketAddress;
+
+import java.net.SocketAddress;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Isolates all references to the native epoll transport. The epoll classes are optional (they are not available on
+ * non-Linux platforms or when the native bundle is not deployed), so this class must only be used once
+ * {@link #isAvailable()} has returned {@literal true}.
+ */
+final class EpollSupport {
+
+    private EpollSupport() {
+        //Unused
+    }
+
+    /**
+     * @return {@literal true} if the epoll classes are on the classpath and the native library has been loaded.
+     */
+    static boolean isAvailable() {
+        try {
+            return Epoll.isAvailable();
+        } catch (Throwable e) { //NOSONAR
+            // The epoll classes are not there (NoClassDefFoundError) or the native library cannot be linked.
+            return false;
+        }
+    }
+
+    /**
+     * @return a description of the reason why epoll is not available.
+     */
+    static String unavailabilityCause() {
+        try {
+            Throwable cause = Epoll.unavailabilityCause();
+            return cause == null ? "unknown cause" : cause.getMessage();
+        } catch (Throwable e) { //NOSONAR
+            return "epoll classes not found";
+        }
+    }
+
+    static EventLoopGroup createEventLoopGroup(int threads, ThreadFactory factory) {
+        return new EpollEventLoopGroup(threads, factory);
+    }
+
+    static void setIoRatio(EventLoopGroup group, int ratio) {
+        ((EpollEventLoopGroup) group).setIoRatio(ratio);
+    }
+
+    static Class<? extends ServerChannel> serverChannelType() {
+        return EpollServerSocketChannel.class;
+    }
+
+    static void enableReusePort(ServerBootstrap bootstrap) {
+        bootstrap.option(EpollChannelOption.SO_REUSEPORT, true);
+    }
+
+    static Class<? extends ServerChannel> domainServerChannelType() {
+        return EpollServerDomainSocketChannel.class;
+    }
+
+    static SocketAddress domainSocketAddress(String path) {
+        return new DomainSocketAddress(path);
+    }
+
+    static void enableTcpFastOpen(ServerBootstrap bootstrap, int queueLength) {
+        bootstrap.option(EpollChannelOption.TCP_FASTOPEN, queueLength);
+    }
+}
@@ -0,0 +1,287 @@
+/*
+ * #%L
+ * Wisdom-Framework
+ * %%
+ * Copyright (C) 2013 - 2014 Wisdom Framework
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.wisdom.engine.server;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.wisdom.api.configuration.ApplicationConfiguration;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The executor running the route invocations outside of the Netty event loops, so a slow controller does not stall
+ * the other connections handled by the same event loop.
+ * <p>
+ * It is configured using:
+ * <ul>
+ * <li>{@literal netty.invocation.mode}: {@literal inline} (the invocations run on the event loops),
+ * {@literal pool} (a bounded thread pool) or {@literal virtual} (one virtual thread per invocation, requires a JDK
+ * supporting virtual threads). When not set, the mode is {@literal pool} if {@literal netty.invocation.threads} is
+ * set, {@literal inline} otherwise</li>
+ * <li>{@literal netty.invocation.threads}: the number of invocation threads of the pool</li>
+ * <li>{@literal netty.invocation.queue}: the capacity of the queue of pending invocations (1024 by default).
+ * Invocations are rejected when the queue is full</li>
+ * <li>{@literal netty.invocation.inline}: a comma-separated list of path prefixes of non-blocking routes, invoked
+ * directly on the event loops</li>
+ * </ul>
+ * In the {@literal virtual} mode, the callables of the {@link org.wisdom.api.http.AsyncResult} are also executed on
+ * virtual threads instead of the Akka dispatcher.
+ */
+public class InvocationExecutor {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger("wisdom-netty-engine");
+
+    private static final String KEY_MODE = "netty.invocation.mode";
+    private static final String KEY_THREADS = "netty.invocation.threads";
+    private static final String KEY_QUEUE = "netty.invocation.queue";
+    private static final String KEY_INLINE = "netty.invocation.inline";
+
+    private static final int DEFAULT_QUEUE = 1024;
+
+    private final ExecutorService executor;
+    private final ThreadPoolExecutor pool;
+    private final boolean virtual;
+    private final int queueCapacity;
+    private final List<String> inline;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong started = new AtomicLong();
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong waitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    /**
+     * Creates the executor.
+     *
+     * @param name          the prefix of the name of the threads
+     * @param threads       the number of threads, {@literal 0} to invoke the routes on the event loops
+     * @param queueCapacity the capacity of the queue, {@literal 0} to reject the invocations when all the threads
+     *                      are busy
+     * @param inline        the path prefixes of the routes invoked on the event loops
+     * @param daemon        whether the threads are daemon threads
+     */
+    InvocationExecutor(String name, int threads, int queueCapacity, List<String> inline, boolean daemon) {
+        this.queueCapacity = queueCapacity;
+        this.inline = ImmutableList.copyOf(inline);
+        this.virtual = false;
+        if (threads > 0) {
+            pool = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                    queueCapacity > 0 ? new ArrayBlockingQueue<Runnable>(queueCapacity)
+                            : new SynchronousQueue<Runnable>(),
+                    new DefaultThreadFactory(name, daemon),
+                    new ThreadPoolExecutor.AbortPolicy());
+        } else {
+            pool = null;
+        }
+        executor = pool;
+    }
+
+    /**
+     * Creates an executor starting a virtual thread per invocation.
+     *
+     * @param virtualThreads the executor creating the virtual threads
+     * @param inline         the path prefixes of the routes invoked on the event loops
+     */
+    InvocationExecutor(ExecutorService virtualThreads, List<String> inline) {
+        this.queueCapacity = 0;
+        this.inline = ImmutableList.copyOf(inline);
+        this.virtual = true;
+        this.pool = null;
+        this.executor = virtualThreads;
+    }
+
+    /**
+     * Creates the executor from the application configuration.
+     *
+     * @param configuration the configuration
+     * @param daemon        whether the threads are daemon threads
+     * @return the executor
+     */
+    static InvocationExecutor fromConfiguration(ApplicationConfiguration configuration, boolean daemon) {
+        int threads = Math.max(0, configuration.getIntegerWithDefault(KEY_THREADS, 0));
+        int queue = configuration.getIntegerWithDefault(KEY_QUEUE, DEFAULT_QUEUE);
+        if (queue <= 0) {
+            queue = DEFAULT_QUEUE;
+        }
+        List<String> inline = ImmutableList.of();
+        String prefixes = configuration.get(KEY_INLINE);
+        if (prefixes != null) {
+            inline = ImmutableList.copyOf(Splitter.on(',').trimResults().omitEmptyStrings().split(prefixes));
+        }
+        String mode = configuration.get(KEY_MODE);
+        if ("virtual".equalsIgnoreCase(mode)) {
+            ExecutorService virtualThreads = newVirtualThreadPerTaskExecutor();
+            if (virtualThreads != null) {
+                LOGGER.info("Route invocations and async results are executed on virtual threads (inline routes: " +
+                        "{})", inline);
+                return new InvocationExecutor(virtualThreads, inline);
+            }
+            LOGGER.warn("Virtual threads are not supported by this JVM ({}), falling back to the {} mode",
+                    System.getProperty("java.version"), threads > 0 ? "pool" : "inline");
+        } else if ("inline".equalsIgnoreCase(mode)) {
+            threads = 0;
+        } else if (mode != null && !"pool".equalsIgnoreCase(mode)) {
+            LOGGER.warn("Unknown invocation mode '{}', using the {} mode", mode, threads > 0 ? "pool" : "inline");
+        }
+        InvocationExecutor executor = new InvocationExecutor("wisdom-netty-invocation", threads, queue, inline,
+                daemon);
+        if (threads > 0) {
+            LOGGER.info("Route invocations are executed by {} thread(s) (queue capacity: {}, inline routes: {})",
+                    threads, queue, inline);
+        } else {
+            LOGGER.info("Route invocations are executed on the event loops");
+        }
+        return executor;
+    }
+
+    /**
+     * Creates the JDK executor starting a new virtual thread per task. The method is looked up reflectively, so the
+     * engine still runs on JVMs without virtual threads.
+     *
+     * @return the executor, {@literal null} if virtual threads are not supported
+     */
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        } catch (NoSuchMethodException e) { //NOSONAR
+            return null;
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            LOGGER.warn("Cannot create the virtual thread executor", e);
+            return null;
+        }
+    }
+
+    /**
+     * @return whether invocations run on virtual threads. In this case, the async results are also computed by
+     * this executor.
+     */
+    public boolean isVirtual() {
+        return virtual;
+    }
+
+    /**
+     * Checks whether the route serving the given path is invoked on the event loop.
+     *
+     * @param path the request path
+     * @return {@literal true} if the invocation must not be offloaded
+     */
+    public boolean isInline(String path) {
+        if (executor == null) {
+            return true;
+        }
+        for (String prefix : inline) {
+            if (path != null && path.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Submits an invocation.
+     *
+     * @param task the invocation
+     * @throws RejectedExecutionException if the queue is full or the executor shut down
+     */
+    public void execute(final Runnable task) {
+        final long enqueued = System.nanoTime();
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    recordWait(System.nanoTime() - enqueued);
+                    inFlight.incrementAndGet();
+                    try {
+                        task.run();
+                    } finally {
+                        inFlight.decrementAndGet();
+                    }
+                }
+            });
+            submitted.incrementAndGet();
+        } catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            throw e;
+        }
+    }
+
+    private void recordWait(long wait) {
+        started.incrementAndGet();
+        waitNanos.addAndGet(wait);
+        long max = maxWaitNanos.get();
+        while (wait > max && !maxWaitNanos.compareAndSet(max, wait)) {
+            max = maxWaitNanos.get();
+        }
+    }
+
+    /**
+     * Stops the invocation threads. Pending invocations are still executed.
+     */
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * @return the statistics of the executor: mode, number of threads, queue depth and capacity (pool mode),
+     * running, submitted and rejected invocations, average and max time spent in the queue (in microseconds).
+     */
+    public Map<String, Object> statistics() {
+        if (executor == null) {
+            return ImmutableMap.<String, Object>of("mode", "inline");
+        }
+        long count = started.get();
+        ImmutableMap.Builder<String, Object> builder = ImmutableMap.builder();
+        if (virtual) {
+            builder.put("mode", "virtual");
+        } else {
+            builder.put("mode", "pool")
+                    .put("threads", pool.getPoolSize())
+                    .put("queued", pool.getQueue().size())
+                    .put("queueCapacity", queueCapacity);
+        }
+        return builder
+                .put("active", inFlight.get())
+                .put("submitted", submitted.get())
+                .put("rejected", rejected.get())
+                .put("averageWaitMicros", count == 0 ? 0L : TimeUnit.NANOSECONDS.toMicros(waitNanos.get() / count))
+                .put("maxWaitMicros", TimeUnit.NANOSECONDS.toMicros(maxWaitNanos.get()))
+                .build();
+    }
+}
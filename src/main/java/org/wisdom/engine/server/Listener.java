@@ -0,0 +1,198 @@
+/*
+ * #%L
+ * Wisdom-Framework
+ * %%
+ * Copyright (C) 2013 - 2014 Wisdom Framework
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.wisdom.engine.server;
+
+import com.google.common.base.Splitter;
+import org.wisdom.api.configuration.ApplicationConfiguration;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A listener, i.e. an address on which the server accepts HTTP or HTTPS connections.
+ * <p>
+ * By default, there is one listener per scheme, configured using {@literal netty.http.port} and
+ * {@literal netty.https.port} (and {@literal http.address}). Several listeners can be declared for the same scheme
+ * using {@literal netty.http.listeners} (or {@literal netty.https.listeners}), a comma-separated list of names. Each
+ * named listener is then configured with {@literal netty.http.listeners.<name>.address} (optional, all interfaces
+ * when not set) and {@literal netty.http.listeners.<name>.port}. Socket options can also be set per listener
+ * using the {@literal netty.http.listeners.<name>} prefix.
+ * <p>
+ * A named listener can also listen on a Unix domain socket instead of a TCP port, by setting
+ * {@literal netty.http.listeners.<name>.path} to the path of the socket file. This is typically used when a
+ * reverse proxy runs on the same host. Domain sockets require the {@literal epoll} transport.
+ */
+final class Listener {
+
+    private final String name;
+    private final boolean secure;
+    private final InetAddress address;
+    private final int port;
+    private final String path;
+    private final ListenerOptions options;
+    private volatile int boundPort = -1;
+
+    private Listener(String name, boolean secure, InetAddress address, int port, String path,
+                     ListenerOptions options) {
+        this.name = name;
+        this.secure = secure;
+        this.address = address;
+        this.port = port;
+        this.path = path;
+        this.options = options;
+    }
+
+    /**
+     * Reads the listeners of a scheme from the configuration.
+     *
+     * @param configuration  the application configuration
+     * @param secure         whether we read the HTTPS or the HTTP listeners
+     * @param defaultAddress the address used when the listener does not declare one, {@literal null} for all
+     *                       interfaces
+     * @return the list of listeners, empty if the scheme is disabled
+     * @throws IllegalArgumentException if a named listener is not correctly configured
+     */
+    static List<Listener> fromConfiguration(ApplicationConfiguration configuration, boolean secure,
+                                            InetAddress defaultAddress) {
+        String scheme = secure ? "https" : "http";
+        String prefix = "netty." + scheme;
+        String label = scheme.toUpperCase();
+        List<Listener> listeners = new ArrayList<>();
+        String names = configuration.get(prefix + ".listeners");
+        if (names == null) {
+            // Negative ports disable the channels. Usually, we use -1.
+            // 0 indicates a random port, chosen by the OS.
+            int port = configuration.getIntegerWithDefault(prefix + ".port", secure ? -1 : 8080);
+            if (port >= 0) {
+                listeners.add(new Listener(label, secure, defaultAddress, port, null,
+                        ListenerOptions.fromConfiguration(configuration, label, prefix)));
+            }
+            return listeners;
+        }
+
+        for (String name : Splitter.on(',').trimResults().omitEmptyStrings().split(names)) {
+            String listenerPrefix = prefix + ".listeners." + name;
+            String listenerName = label + " " + name;
+            ListenerOptions options = ListenerOptions.fromConfiguration(configuration, listenerName, listenerPrefix,
+                    prefix);
+            String path = configuration.get(listenerPrefix + ".path");
+            if (path != null) {
+                listeners.add(new Listener(listenerName, secure, null, -1, path, options));
+                continue;
+            }
+            int port = configuration.getIntegerWithDefault(listenerPrefix + ".port", -1);
+            if (port < 0) {
+                throw new IllegalArgumentException("The " + listenerName + " listener has no port, set "
+                        + listenerPrefix + ".port (or " + listenerPrefix + ".path for a Unix domain socket)");
+            }
+            InetAddress address = defaultAddress;
+            String host = configuration.get(listenerPrefix + ".address");
+            if (host != null) {
+                try {
+                    address = InetAddress.getByName(host);
+                } catch (UnknownHostException e) {
+                    throw new IllegalArgumentException("Invalid address for the " + listenerName + " listener: "
+                            + host, e);
+                }
+            }
+            listeners.add(new Listener(listenerName, secure, address, port, null, options));
+        }
+        return listeners;
+    }
+
+    /**
+     * @return the name of the listener, used in log messages.
+     */
+    String name() {
+        return name;
+    }
+
+    /**
+     * @return whether the listener serves HTTPS.
+     */
+    boolean isSecure() {
+        return secure;
+    }
+
+    /**
+     * @return the address on which the listener is bound, {@literal null} for all interfaces.
+     */
+    InetAddress address() {
+        return address;
+    }
+
+    /**
+     * @return whether the listener listens on a Unix domain socket.
+     */
+    boolean isDomainSocket() {
+        return path != null;
+    }
+
+    /**
+     * @return the path of the Unix domain socket, {@literal null} for TCP listeners.
+     */
+    String path() {
+        return path;
+    }
+
+    /**
+     * @return the address to bind. Domain socket addresses are only created once the server has checked that its
+     * transport supports them.
+     */
+    SocketAddress localAddress() {
+        if (path != null) {
+            return EpollSupport.domainSocketAddress(path);
+        }
+        // A null address is the wildcard address, dual-stack when IPv6 is available.
+        return new InetSocketAddress(address, port);
+    }
+
+    /**
+     * @return a human readable description of the bound address, used in log messages.
+     */
+    String description() {
+        if (path != null) {
+            return "unix:" + path;
+        }
+        return (address == null ? "*" : address.getHostAddress()) + ":" + boundPort;
+    }
+
+    /**
+     * @return the socket options of the listener.
+     */
+    ListenerOptions options() {
+        return options;
+    }
+
+    /**
+     * @return the port on which the listener is bound, {@literal -1} if not yet bound.
+     */
+    int boundPort() {
+        return boundPort;
+    }
+
+    void boundPort(int port) {
+        this.boundPort = port;
+    }
+}
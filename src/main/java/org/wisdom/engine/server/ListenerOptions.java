@@ -0,0 +1,229 @@
+/*
+ * #%L
+ * Wisdom-Framework
+ * %%
+ * Copyright (C) 2013 - 2014 Wisdom Framework
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.wisdom.engine.server;
+
+import com.google.common.collect.ImmutableSet;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.ChannelOption;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.wisdom.api.configuration.ApplicationConfiguration;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The socket options of a listener. Each option is looked up using the listener prefixes, from the most specific to
+ * the least specific one (for instance {@literal netty.http.listeners.public.backlog}, then
+ * {@literal netty.http.backlog}), and then using the global {@literal netty} prefix (for instance
+ * {@literal netty.backlog}). Unset options keep the Netty defaults, except {@literal tcpNoDelay} which is enabled
+ * by default.
+ */
+final class ListenerOptions {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger("wisdom-netty-engine");
+
+    private static final String GLOBAL_PREFIX = "netty";
+
+    /**
+     * The default write buffer water marks of the Netty channels.
+     */
+    private static final int DEFAULT_HIGH_WATER_MARK = 64 * 1024;
+    private static final int DEFAULT_LOW_WATER_MARK = 32 * 1024;
+
+    /**
+     * Options only meaningful for TCP sockets.
+     */
+    private static final Set<ChannelOption<?>> TCP_OPTIONS = ImmutableSet.<ChannelOption<?>>of(
+            ChannelOption.TCP_NODELAY, ChannelOption.SO_KEEPALIVE);
+
+    private final String name;
+    private final Map<ChannelOption<?>, Object> serverOptions = new LinkedHashMap<>();
+    private final Map<ChannelOption<?>, Object> childOptions = new LinkedHashMap<>();
+    private int tcpFastOpen = -1;
+
+    private ListenerOptions(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Reads the options of a listener.
+     *
+     * @param configuration the application configuration
+     * @param name          the listener name, used in log messages
+     * @param prefixes      the prefixes of the listener configuration keys, such as {@literal netty.http}, from the
+     *                      most specific to the least specific. The global {@literal netty} prefix is always used
+     *                      last.
+     * @return the options
+     */
+    static ListenerOptions fromConfiguration(ApplicationConfiguration configuration, String name,
+                                             String... prefixes) {
+        ListenerOptions options = new ListenerOptions(name);
+        String[] chain = Arrays.copyOf(prefixes, prefixes.length + 1);
+        chain[prefixes.length] = GLOBAL_PREFIX;
+        Integer backlog = readInteger(configuration, chain, "backlog", 1);
+        if (backlog != null) {
+            options.serverOptions.put(ChannelOption.SO_BACKLOG, backlog);
+        }
+        Boolean noDelay = readBoolean(configuration, chain, "tcpNoDelay");
+        options.childOptions.put(ChannelOption.TCP_NODELAY, noDelay == null ? Boolean.TRUE : noDelay);
+        Boolean keepAlive = readBoolean(configuration, chain, "keepAlive");
+        if (keepAlive != null) {
+            options.childOptions.put(ChannelOption.SO_KEEPALIVE, keepAlive);
+        }
+        Integer receiveBuffer = readInteger(configuration, chain, "receiveBufferSize", 1);
+        if (receiveBuffer != null) {
+            // Set on the listening socket too, as the window scaling is negotiated during the handshake.
+            options.serverOptions.put(ChannelOption.SO_RCVBUF, receiveBuffer);
+            options.childOptions.put(ChannelOption.SO_RCVBUF, receiveBuffer);
+        }
+        Integer sendBuffer = readInteger(configuration, chain, "sendBufferSize", 1);
+        if (sendBuffer != null) {
+            options.childOptions.put(ChannelOption.SO_SNDBUF, sendBuffer);
+        }
+        Integer high = readInteger(configuration, chain, "writeBufferHighWaterMark", 1);
+        Integer low = readInteger(configuration, chain, "writeBufferLowWaterMark", 0);
+        if (high != null || low != null) {
+            // Netty checks each mark against the current value of the other one (64K / 32K by default), so the pair
+            // is validated as a whole, and the marks are applied in an order keeping them consistent.
+            int effectiveHigh = high == null ? DEFAULT_HIGH_WATER_MARK : high;
+            int effectiveLow = low == null ? DEFAULT_LOW_WATER_MARK : low;
+            if (effectiveLow > effectiveHigh) {
+                LOGGER.warn("Invalid write buffer water marks for the {} listener, the low water mark ({}) is " +
+                        "greater than the high water mark ({}), ignoring them", name, effectiveLow, effectiveHigh);
+            } else if (effectiveHigh < DEFAULT_LOW_WATER_MARK) {
+                // Shrinking: the low mark must be lowered before the high mark.
+                options.childOptions.put(ChannelOption.WRITE_BUFFER_LOW_WATER_MARK, effectiveLow);
+                options.childOptions.put(ChannelOption.WRITE_BUFFER_HIGH_WATER_MARK, effectiveHigh);
+            } else {
+                // Growing: the high mark must be raised before the low mark.
+                options.childOptions.put(ChannelOption.WRITE_BUFFER_HIGH_WATER_MARK, effectiveHigh);
+                options.childOptions.put(ChannelOption.WRITE_BUFFER_LOW_WATER_MARK, effectiveLow);
+            }
+        }
+        Boolean autoRead = readBoolean(configuration, chain, "autoRead");
+        if (autoRead != null) {
+            options.childOptions.put(ChannelOption.AUTO_READ, autoRead);
+        }
+        Integer fastOpen = readInteger(configuration, chain, "tcpFastOpen", 1);
+        if (fastOpen != null) {
+            options.tcpFastOpen = fastOpen;
+        }
+        return options;
+    }
+
+    /**
+     * Applies the options on the given bootstrap.
+     *
+     * @param bootstrap the bootstrap
+     * @param transport the transport used by the bootstrap
+     * @param tcp       whether the listener uses TCP, TCP specific options are not applied on Unix domain sockets
+     */
+    @SuppressWarnings("unchecked")
+    void apply(ServerBootstrap bootstrap, Transport transport, boolean tcp) {
+        for (Map.Entry<ChannelOption<?>, Object> entry : serverOptions.entrySet()) {
+            bootstrap.option((ChannelOption<Object>) entry.getKey(), entry.getValue());
+        }
+        for (Map.Entry<ChannelOption<?>, Object> entry : childOptions.entrySet()) {
+            if (!tcp && TCP_OPTIONS.contains(entry.getKey())) {
+                continue;
+            }
+            bootstrap.childOption((ChannelOption<Object>) entry.getKey(), entry.getValue());
+        }
+        if (!tcp) {
+            LOGGER.info("{} listener options: {}, child options: {}", name, serverOptions, childOptions);
+            return;
+        }
+        if (tcpFastOpen > 0) {
+            if (transport.supportsTcpFastOpen()) {
+                transport.enableTcpFastOpen(bootstrap, tcpFastOpen);
+            } else {
+                LOGGER.warn("TCP_FASTOPEN is not supported by the {} transport, ignoring it for the {} listener",
+                        transport, name);
+            }
+        }
+        LOGGER.info("{} listener options: {}, child options: {}{}", name, serverOptions, childOptions,
+                tcpFastOpen > 0 && transport.supportsTcpFastOpen() ? ", TCP_FASTOPEN: " + tcpFastOpen : "");
+    }
+
+    /**
+     * @return the options set on the listening socket.
+     */
+    Map<ChannelOption<?>, Object> serverOptions() {
+        return Collections.unmodifiableMap(serverOptions);
+    }
+
+    /**
+     * @return the options set on the accepted sockets.
+     */
+    Map<ChannelOption<?>, Object> childOptions() {
+        return Collections.unmodifiableMap(childOptions);
+    }
+
+    private static String read(ApplicationConfiguration configuration, String[] prefixes, String key) {
+        for (String prefix : prefixes) {
+            String value = configuration.get(prefix + "." + key);
+            if (value != null) {
+                return value;
+            }
+        }
+        return null;
+    }
+
+    private static Integer readInteger(ApplicationConfiguration configuration, String[] prefix, String key,
+                                       int min) {
+        String value = read(configuration, prefix, key);
+        if (value == null) {
+            return null;
+        }
+        try {
+            int parsed = Integer.parseInt(value.trim());
+            if (parsed < min) {
+                LOGGER.warn("Invalid value for the '{}' option of the {} listener: {} (must be greater or equal " +
+                        "to {}), ignoring it", key, prefix[0], value, min);
+                return null;
+            }
+            return parsed;
+        } catch (NumberFormatException e) { //NOSONAR
+            LOGGER.warn("Invalid value for the '{}' option of the {} listener: '{}' is not an integer, " +
+                    "ignoring it", key, prefix[0], value);
+            return null;
+        }
+    }
+
+    private static Boolean readBoolean(ApplicationConfiguration configuration, String[] prefix, String key) {
+        String value = read(configuration, prefix, key);
+        if (value == null) {
+            return null;
+        }
+        if ("true".equalsIgnoreCase(value.trim())) {
+            return Boolean.TRUE;
+        }
+        if ("false".equalsIgnoreCase(value.trim())) {
+            return Boolean.FALSE;
+        }
+        LOGGER.warn("Invalid value for the '{}' option of the {} listener: '{}' is not a boolean, ignoring it",
+                key, prefix[0], value);
+        return null;
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * #%L
+ * Wisdom-Framework
+ * %%
+ * Copyright (C) 2013 - 2014 Wisdom Framework
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.wisdom.engine.server;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * The body of a streamed request, read by the controller while the chunks are received. The event loop offers the
+ * chunks, and the controller reads them from another thread (the invocation executor).
+ * <p>
+ * The stream applies backpressure: when the chunks buffered but not yet read exceed the high water mark, the channel
+ * stops reading from the socket. It resumes once the controller has consumed the buffered chunks down to the low
+ * water mark.
+ * <p>
+ * The stream is available in the request data under the {@link #DATA_KEY} key.
+ */
+public class RequestBodyStream extends InputStream {
+
+    /**
+     * The key of the stream in the request data.
+     */
+    public static final String DATA_KEY = "wisdom.netty.body.stream";
+
+    private final Channel channel;
+    private final long highWaterMark;
+    private final long lowWaterMark;
+
+    private final Deque<ByteBuf> chunks = new ArrayDeque<>();
+    private ByteBuf current;
+    private long buffered;
+    private boolean paused;
+    private boolean completed;
+    private boolean closed;
+    private IOException failure;
+
+    /**
+     * Creates the stream.
+     *
+     * @param channel       the channel receiving the body
+     * @param highWaterMark the number of buffered bytes above which the channel stops reading
+     */
+    public RequestBodyStream(Channel channel, long highWaterMark) {
+        this.channel = channel;
+        this.highWaterMark = highWaterMark;
+        this.lowWaterMark = highWaterMark / 2;
+    }
+
+    /**
+     * Offers a chunk received by the event loop. The chunk is retained until it is read.
+     *
+     * @param chunk the chunk
+     */
+    synchronized void offer(ByteBuf chunk) {
+        if (closed || failure != null || !chunk.isReadable()) {
+            return;
+        }
+        chunks.add(chunk.retain());
+        buffered += chunk.readableBytes();
+        if (buffered >= highWaterMark && !paused) {
+            paused = true;
+            channel.config().setAutoRead(false);
+        }
+        notifyAll();
+    }
+
+    /**
+     * Notifies that the whole body has been received.
+     */
+    synchronized void complete() {
+        completed = true;
+        notifyAll();
+    }
+
+    /**
+     * Notifies that the body cannot be received completely. The reader gets the given exception once the buffered
+     * chunks are discarded.
+     *
+     * @param cause the cause
+     */
+    synchronized void fail(IOException cause) {
+        failure = cause;
+        releaseChunks();
+        notifyAll();
+    }
+
+    /**
+     * @return whether the whole body has been received.
+     */
+    synchronized boolean isCompleted() {
+        return completed;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] single = new byte[1];
+        int read = read(single, 0, 1);
+        return read == -1 ? -1 : single[0] & 0xFF;
+    }
+
+    @Override
+    public synchronized int read(byte[] bytes, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        while (current == null || !current.isReadable()) {
+            if (current != null) {
+                current.release();
+                current = null;
+            }
+            if (closed) {
+                throw new IOException("Stream closed");
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            current = chunks.poll();
+            if (current == null) {
+                if (completed) {
+                    return -1;
+                }
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for the request body");
+                }
+            }
+        }
+        int read = Math.min(length, current.readableBytes());
+        current.readBytes(bytes, offset, read);
+        buffered -= read;
+        if (paused && !completed && buffered <= lowWaterMark) {
+            paused = false;
+            channel.eventLoop().execute(new Runnable() {
+                @Override
+                public void run() {
+                    resume();
+                }
+            });
+        }
+        return read;
+    }
+
+    /**
+     * Re-enables the reads of the channel, from the event loop. The state is checked again there: once the body is
+     * completed (or the stream closed or failed), the handler owns the reads of the channel and keeps them disabled
+     * until the invocation completes, and a chunk received in the meantime may have paused the stream again.
+     */
+    private synchronized void resume() {
+        if (!paused && !completed && !closed && failure == null) {
+            channel.config().setAutoRead(true);
+        }
+    }
+
+    @Override
+    public synchronized int available() {
+        return (int) Math.min(Integer.MAX_VALUE, buffered);
+    }
+
+    /**
+     * Closes the stream. The buffered chunks are released, and the chunks received later are ignored.
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        releaseChunks();
+        notifyAll();
+    }
+
+    private void releaseChunks() {
+        if (current != null) {
+            current.release();
+            current = null;
+        }
+        for (ByteBuf chunk : chunks) {
+            chunk.release();
+        }
+        chunks.clear();
+        buffered = 0;
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * #%L
+ * Wisdom-Framework
+ * %%
+ * Copyright (C) 2013 - 2014 Wisdom Framework
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.wisdom.engine.server;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableMap;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+import io.netty.util.TimerTask;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.wisdom.api.configuration.ApplicationConfiguration;
+import org.wisdom.api.router.Route;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Manages the deadlines of the requests waiting for an async result. All deadlines are tracked by a single timer
+ * wheel shared by all the connections.
+ * <p>
+ * The global deadline is configured (in milliseconds) using {@literal netty.request.timeout} ({@literal 0}, the
+ * default, disables it). Deadlines specific to some routes are configured using {@literal netty.request.timeouts},
+ * a comma-separated list of {@literal path-prefix=milliseconds} entries. The longest matching prefix wins.
+ */
+public class RequestTimeouts {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger("wisdom-netty-engine");
+
+    private static final String KEY_TIMEOUT = "netty.request.timeout";
+    private static final String KEY_TIMEOUTS = "netty.request.timeouts";
+
+    private final long defaultTimeout;
+    private final Map<String, Long> timeouts;
+    private final boolean daemon;
+    private volatile HashedWheelTimer timer;
+
+    private final ConcurrentMap<String, AtomicLong> timedOut = new ConcurrentHashMap<>();
+
+    /**
+     * Creates the timeouts.
+     *
+     * @param defaultTimeout the global timeout in milliseconds, {@literal 0} to disable it
+     * @param timeouts       the timeouts per path prefix
+     * @param daemon         whether the timer thread is a daemon thread
+     */
+    RequestTimeouts(long defaultTimeout, Map<String, Long> timeouts, boolean daemon) {
+        this.defaultTimeout = defaultTimeout;
+        this.timeouts = ImmutableMap.copyOf(timeouts);
+        this.daemon = daemon;
+    }
+
+    /**
+     * Reads the timeouts from the application configuration.
+     *
+     * @param configuration the configuration
+     * @param daemon        whether the timer thread is a daemon thread
+     * @return the timeouts
+     */
+    static RequestTimeouts fromConfiguration(ApplicationConfiguration configuration, boolean daemon) {
+        long timeout = Math.max(0, configuration.getIntegerWithDefault(KEY_TIMEOUT, 0));
+        Map<String, Long> timeouts = new LinkedHashMap<>();
+        String entries = configuration.get(KEY_TIMEOUTS);
+        if (entries != null) {
+            for (String entry : Splitter.on(',').trimResults().omitEmptyStrings().split(entries)) {
+                int index = entry.indexOf('=');
+                try {
+                    timeouts.put(entry.substring(0, index).trim(), Long.parseLong(entry.substring(index + 1).trim()));
+                } catch (NumberFormatException | IndexOutOfBoundsException e) { //NOSONAR
+                    LOGGER.warn("Invalid entry in {}: '{}', expected 'path-prefix=milliseconds'", KEY_TIMEOUTS,
+                            entry);
+                }
+            }
+        }
+        if (timeout > 0 || !timeouts.isEmpty()) {
+            LOGGER.info("Request deadlines: {} ms by default, per route: {}", timeout == 0 ? "none" : timeout,
+                    timeouts);
+        }
+        return new RequestTimeouts(timeout, timeouts, daemon);
+    }
+
+    /**
+     * Gets the deadline of the requests on the given path.
+     *
+     * @param path the path
+     * @return the timeout in milliseconds, {@literal 0} if the requests have no deadline
+     */
+    public long timeoutFor(String path) {
+        long timeout = defaultTimeout;
+        int length = -1;
+        if (path != null) {
+            for (Map.Entry<String, Long> entry : timeouts.entrySet()) {
+                if (path.startsWith(entry.getKey()) && entry.getKey().length() > length) {
+                    length = entry.getKey().length();
+                    timeout = entry.getValue();
+                }
+            }
+        }
+        return timeout;
+    }
+
+    /**
+     * Schedules a deadline.
+     *
+     * @param task    the task executed when the deadline expires
+     * @param timeout the timeout in milliseconds
+     * @return the handle to cancel the deadline
+     */
+    public Timeout schedule(TimerTask task, long timeout) {
+        return timer().newTimeout(task, timeout, TimeUnit.MILLISECONDS);
+    }
+
+    private HashedWheelTimer timer() {
+        // The timer thread is only started if a deadline is scheduled.
+        if (timer == null) {
+            synchronized (this) {
+                if (timer == null) {
+                    timer = new HashedWheelTimer(new DefaultThreadFactory("wisdom-netty-deadlines", daemon),
+                            10, TimeUnit.MILLISECONDS);
+                }
+            }
+        }
+        return timer;
+    }
+
+    /**
+     * Records that a request on the given route has timed out.
+     *
+     * @param route the route, may be {@literal null}
+     */
+    public void timedOut(Route route) {
+        String key = route == null ? "unknown" : route.getHttpMethod() + " " + route.getUrl();
+        AtomicLong counter = timedOut.get(key);
+        if (counter == null) {
+            AtomicLong created = new AtomicLong();
+            counter = timedOut.putIfAbsent(key, created);
+            if (counter == null) {
+                counter = created;
+            }
+        }
+        counter.incrementAndGet();
+    }
+
+    /**
+     * @return the number of timed out requests per route ({@literal METHOD url}).
+     */
+    public Map<String, Object> statistics() {
+        ImmutableMap.Builder<String, Object> builder = ImmutableMap.builder();
+        for (Map.Entry<String, AtomicLong> entry : timedOut.entrySet()) {
+            builder.put(entry.getKey(), entry.getValue().get());
+        }
+        return builder.build();
+    }
+
+    /**
+     * Stops the timer. The pending deadlines are discarded.
+     */
+    public void stop() {
+        if (timer != null) {
+            timer.stop();
+        }
+    }
+}
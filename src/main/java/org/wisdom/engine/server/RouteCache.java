@@ -0,0 +1,255 @@
+/*
+ * #%L
+ * Wisdom-Framework
+ * %%
+ * Copyright (C) 2013 - 2014 Wisdom Framework
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.wisdom.engine.server;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableMap;
+import org.wisdom.api.Controller;
+import org.wisdom.api.configuration.ApplicationConfiguration;
+import org.wisdom.api.router.Route;
+import org.wisdom.api.router.Router;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches the routes resolved by the router, keyed by HTTP method and raw path. The path parameters of the bound
+ * routes are extracted once, when the route is resolved.
+ * <p>
+ * Unbound routes (paths without controller) are kept in a separate cache, so scanner traffic hitting random paths
+ * is cheap and does not evict the routes actually served. The caches are invalidated when a controller arrives or
+ * leaves (see {@link Dispatcher#bindController(org.wisdom.api.Controller)}).
+ * <p>
+ * The controllers are tracked by the router independently of the engine, so the router may still return the route
+ * of a controller that has just left. When the registered controllers are tracked (see {@link #track(Collection)}),
+ * the controller of a cached bound route is checked on each hit: the route of a departed controller is resolved
+ * again, and it is not cached.
+ * <p>
+ * The size of each cache is configured using {@literal netty.routes.cache.size} (1024 by default, 0 disables the
+ * cache). The entries also expire after {@literal netty.routes.cache.expiration} seconds (60 by default) for bound
+ * routes, and {@literal netty.routes.cache.unbound.expiration} seconds (5 by default) for unbound routes.
+ */
+public class RouteCache {
+
+    /**
+     * The configuration key of the size of the caches.
+     */
+    public static final String KEY_SIZE = "netty.routes.cache.size";
+
+    /**
+     * The configuration key of the lifetime (in seconds) of the bound routes.
+     */
+    public static final String KEY_EXPIRATION = "netty.routes.cache.expiration";
+
+    /**
+     * The configuration key of the lifetime (in seconds) of the unbound routes.
+     */
+    public static final String KEY_UNBOUND_EXPIRATION = "netty.routes.cache.unbound.expiration";
+
+    private static final int DEFAULT_EXPIRATION = 60;
+    private static final int DEFAULT_UNBOUND_EXPIRATION = 5;
+
+    private final Cache<String, Resolution> bound;
+    private final Cache<String, Resolution> unbound;
+
+    /**
+     * Incremented on each invalidation, so a route resolved before an invalidation is not cached.
+     */
+    private final AtomicLong generation = new AtomicLong();
+
+    /**
+     * The registered controllers, {@literal null} if they are not tracked.
+     */
+    private volatile Collection<Controller> controllers;
+
+    /**
+     * Creates the cache.
+     *
+     * @param size              the maximum number of bound routes, and of unbound routes, kept in the cache,
+     *                          {@literal 0} to disable the cache
+     * @param expiration        the lifetime of the bound routes in milliseconds
+     * @param unboundExpiration the lifetime of the unbound routes in milliseconds
+     */
+    public RouteCache(int size, long expiration, long unboundExpiration) {
+        if (size > 0) {
+            bound = CacheBuilder.newBuilder().maximumSize(size)
+                    .expireAfterWrite(expiration, TimeUnit.MILLISECONDS).recordStats().build();
+            unbound = CacheBuilder.newBuilder().maximumSize(size)
+                    .expireAfterWrite(unboundExpiration, TimeUnit.MILLISECONDS).recordStats().build();
+        } else {
+            bound = null;
+            unbound = null;
+        }
+    }
+
+    /**
+     * Creates the cache from the application configuration.
+     *
+     * @param configuration the configuration
+     * @return the cache
+     */
+    static RouteCache fromConfiguration(ApplicationConfiguration configuration) {
+        int expiration = configuration.getIntegerWithDefault(KEY_EXPIRATION, DEFAULT_EXPIRATION);
+        if (expiration <= 0) {
+            expiration = DEFAULT_EXPIRATION;
+        }
+        int unboundExpiration = configuration.getIntegerWithDefault(KEY_UNBOUND_EXPIRATION,
+                DEFAULT_UNBOUND_EXPIRATION);
+        if (unboundExpiration <= 0) {
+            unboundExpiration = DEFAULT_UNBOUND_EXPIRATION;
+        }
+        return new RouteCache(Math.max(0, configuration.getIntegerWithDefault(KEY_SIZE, 1024)),
+                TimeUnit.SECONDS.toMillis(expiration), TimeUnit.SECONDS.toMillis(unboundExpiration));
+    }
+
+    /**
+     * Resolves the route of the given request.
+     *
+     * @param router the router
+     * @param method the HTTP method
+     * @param path   the raw path
+     * @return the resolution, {@literal null} if the router has not returned a route
+     */
+    public Resolution resolve(Router router, String method, String path) {
+        if (bound == null) {
+            return resolution(router.getRouteFor(method, path), path);
+        }
+        String key = method + " " + path;
+        Resolution resolution = bound.getIfPresent(key);
+        if (resolution != null && !isRegistered(resolution.route())) {
+            // The controller has left since the route was cached.
+            bound.invalidate(key);
+            resolution = null;
+        }
+        if (resolution == null) {
+            resolution = unbound.getIfPresent(key);
+        }
+        if (resolution == null) {
+            long current = generation.get();
+            resolution = resolution(router.getRouteFor(method, path), path);
+            if (resolution != null && current == generation.get()) {
+                if (resolution.route().isUnbound()) {
+                    unbound.put(key, resolution);
+                } else if (isRegistered(resolution.route())) {
+                    bound.put(key, resolution);
+                }
+            }
+        }
+        return resolution;
+    }
+
+    /**
+     * Checks whether the controller of the given bound route is still registered.
+     *
+     * @param route the route
+     * @return {@literal true} if the controller is registered, or if the controllers are not tracked (or the route has
+     * no controller object)
+     */
+    private boolean isRegistered(Route route) {
+        Collection<Controller> registered = controllers;
+        Controller controller = route.getControllerObject();
+        return registered == null || controller == null || registered.contains(controller);
+    }
+
+    /**
+     * Tracks the registered controllers, so the cached routes of a departed controller are never used.
+     *
+     * @param controllers a live, thread-safe view of the registered controllers
+     */
+    public void track(Collection<Controller> controllers) {
+        this.controllers = controllers;
+        invalidate();
+    }
+
+    private static Resolution resolution(Route route, String path) {
+        if (route == null) {
+            return null;
+        }
+        if (route.isUnbound()) {
+            return new Resolution(route, Collections.<String, String>emptyMap());
+        }
+        Map<String, String> parameters = route.getPathParametersEncoded(path);
+        if (parameters == null || parameters.isEmpty()) {
+            return new Resolution(route, Collections.<String, String>emptyMap());
+        }
+        return new Resolution(route, Collections.unmodifiableMap(new HashMap<>(parameters)));
+    }
+
+    /**
+     * Forgets all the resolved routes.
+     */
+    public void invalidate() {
+        generation.incrementAndGet();
+        if (bound != null) {
+            bound.invalidateAll();
+            unbound.invalidateAll();
+        }
+    }
+
+    /**
+     * @return the statistics of the cache: whether it is enabled, number of cached bound and unbound routes, hits
+     * and misses.
+     */
+    public Map<String, Object> statistics() {
+        if (bound == null) {
+            return ImmutableMap.<String, Object>of("enabled", false);
+        }
+        return ImmutableMap.<String, Object>builder()
+                .put("enabled", true)
+                .put("bound", bound.size())
+                .put("unbound", unbound.size())
+                .put("hits", bound.stats().hitCount() + unbound.stats().hitCount())
+                // A miss on the bound routes is followed by a lookup in the unbound routes.
+                .put("misses", unbound.stats().missCount())
+                .build();
+    }
+
+    /**
+     * A resolved route and its path parameters.
+     */
+    public static final class Resolution {
+        private final Route route;
+        private final Map<String, String> pathParameters;
+
+        Resolution(Route route, Map<String, String> pathParameters) {
+            this.route = route;
+            this.pathParameters = pathParameters;
+        }
+
+        /**
+         * @return the route.
+         */
+        public Route route() {
+            return route;
+        }
+
+        /**
+         * @return the encoded path parameters (read-only), empty for unbound routes.
+         */
+        public Map<String, String> pathParameters() {
+            return pathParameters;
+        }
+    }
+}
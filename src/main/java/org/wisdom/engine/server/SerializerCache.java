@@ -0,0 +1,110 @@
+/*
+ * #%L
+ * Wisdom-Framework
+ * %%
+ * Copyright (C) 2013 - 2014 Wisdom Framework
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.wisdom.engine.server;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.net.MediaType;
+import org.wisdom.api.content.ContentEngine;
+import org.wisdom.api.content.ContentSerializer;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Memoizes the content serializer chosen for an explicit content type, or for an {@literal Accept} header. Both
+ * caches are bounded, and are invalidated when a content serializer arrives or leaves (see
+ * {@link Dispatcher#bindSerializer(ContentSerializer)}).
+ * <p>
+ * The content engine tracks the serializers on its own, so the invalidation may happen before the engine sees the
+ * new serializer. To bound the impact of such a race, the absence of serializer is never cached, and the choices
+ * expire after a minute.
+ */
+public class SerializerCache {
+
+    private static final int CACHE_SIZE = 256;
+
+    private static final long EXPIRATION = 60;
+
+    private final Cache<String, ContentSerializer> byContentType = CacheBuilder.newBuilder()
+            .maximumSize(CACHE_SIZE)
+            .expireAfterWrite(EXPIRATION, TimeUnit.SECONDS)
+            .build();
+
+    private final Cache<String, ContentSerializer> byAccept = CacheBuilder.newBuilder()
+            .maximumSize(CACHE_SIZE)
+            .expireAfterWrite(EXPIRATION, TimeUnit.SECONDS)
+            .build();
+
+    /**
+     * Incremented on each invalidation, so a choice computed before an invalidation is not cached.
+     */
+    private final AtomicLong generation = new AtomicLong();
+
+    /**
+     * Gets the serializer handling the given content type.
+     *
+     * @param engine      the content engine
+     * @param contentType the content type
+     * @return the serializer, {@literal null} if none
+     */
+    public ContentSerializer forContentType(ContentEngine engine, String contentType) {
+        ContentSerializer serializer = byContentType.getIfPresent(contentType);
+        if (serializer == null) {
+            long current = generation.get();
+            serializer = engine.getContentSerializerForContentType(contentType);
+            if (serializer != null && current == generation.get()) {
+                byContentType.put(contentType, serializer);
+            }
+        }
+        return serializer;
+    }
+
+    /**
+     * Gets the best serializer for the given {@literal Accept} header.
+     *
+     * @param engine the content engine
+     * @param accept the header value, {@literal null} if the request has no {@literal Accept} header
+     * @param types  the media types of the header, sorted by preference
+     * @return the serializer, {@literal null} if none
+     */
+    public ContentSerializer forAccept(ContentEngine engine, String accept, Collection<MediaType> types) {
+        String key = accept == null ? "" : accept;
+        ContentSerializer serializer = byAccept.getIfPresent(key);
+        if (serializer == null) {
+            long current = generation.get();
+            serializer = engine.getBestSerializer(types);
+            if (serializer != null && current == generation.get()) {
+                byAccept.put(key, serializer);
+            }
+        }
+        return serializer;
+    }
+
+    /**
+     * Forgets all the choices.
+     */
+    public void invalidate() {
+        generation.incrementAndGet();
+        byContentType.invalidateAll();
+        byAccept.invalidateAll();
+    }
+}
@@ -24,6 +24,8 @@ import org.wisdom.api.configuration.ApplicationConfiguration;
 import org.wisdom.api.content.ContentEngine;
 import org.wisdom.api.crypto.Crypto;
 import org.wisdom.api.router.Router;
+import org.wisdom.engine.wrapper.cookies.CookieSettings;
+import org.wisdom.engine.wrapper.cookies.SessionCache;
 
 /**
  * A structure to access services.
@@ -37,6 +39,26 @@ public class ServiceAccessor {
     private final AkkaSystemService system;
     private final Dispatcher dispatcher;
 
+    /**
+     * The session and flash cookie settings, read on first use.
+     */
+    private volatile CookieSettings cookieSettings;
+
+    /**
+     * The verified session cookies, created on first use.
+     */
+    private volatile SessionCache sessionCache;
+
+    /**
+     * The memoized content serializer choices.
+     */
+    private final SerializerCache serializers = new SerializerCache();
+
+    /**
+     * The resolved routes, created on first use.
+     */
+    private volatile RouteCache routes;
+
     public ServiceAccessor(Crypto crypto, ApplicationConfiguration configuration, Router router,
                            ContentEngine engine, AkkaSystemService system, Dispatcher dispatcher) {
         this.crypto = crypto;
@@ -71,4 +93,58 @@ public class ServiceAccessor {
         return dispatcher;
     }
 
+    /**
+     * @return the resolved routes, created on first use.
+     */
+    public RouteCache getRoutes() {
+        RouteCache cache = routes;
+        if (cache == null) {
+            synchronized (this) {
+                cache = routes;
+                if (cache == null) {
+                    cache = RouteCache.fromConfiguration(configuration);
+                    routes = cache;
+                }
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * @return the memoized content serializer choices.
+     */
+    public SerializerCache getSerializers() {
+        return serializers;
+    }
+
+    /**
+     * @return the session and flash cookie settings, read from the configuration on first use.
+     */
+    public CookieSettings getCookieSettings() {
+        CookieSettings settings = cookieSettings;
+        if (settings == null) {
+            // Concurrent initializations read the same values, the race is harmless.
+            settings = new CookieSettings(configuration);
+            cookieSettings = settings;
+        }
+        return settings;
+    }
+
+    /**
+     * @return the cache of the verified session cookies, created on first use.
+     */
+    public SessionCache getSessionCache() {
+        SessionCache cache = sessionCache;
+        if (cache == null) {
+            synchronized (this) {
+                cache = sessionCache;
+                if (cache == null) {
+                    CookieSettings settings = getCookieSettings();
+                    cache = new SessionCache(settings.sessionCacheSize(), settings.sessionExpireTimeInMs());
+                    sessionCache = cache;
+                }
+            }
+        }
+        return cache;
+    }
 }
@@ -0,0 +1,226 @@
+/*
+ * #%L
+ * Wisdom-Framework
+ * %%
+ * Copyright (C) 2013 - 2014 Wisdom Framework
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.wisdom.engine.server;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.wisdom.api.configuration.ApplicationConfiguration;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * The network transports on which the engine can run. NIO is always available. The native epoll transport is only
+ * available on Linux, when the netty native library can be loaded.
+ */
+public enum Transport {
+
+    /**
+     * The portable transport based on Java NIO selectors.
+     */
+    NIO {
+        @Override
+        EventLoopGroup createEventLoopGroup(int threads, ThreadFactory factory) {
+            return new NioEventLoopGroup(threads, factory);
+        }
+
+        @Override
+        void setIoRatio(EventLoopGroup group, int ratio) {
+            ((NioEventLoopGroup) group).setIoRatio(ratio);
+        }
+
+        @Override
+        Class<? extends ServerChannel> serverChannelType() {
+            return NioServerSocketChannel.class;
+        }
+
+        @Override
+        boolean supportsReusePort() {
+            return false;
+        }
+
+        @Override
+        void enableReusePort(ServerBootstrap bootstrap) {
+            LOGGER.warn("SO_REUSEPORT is not supported by the NIO transport, ignoring it");
+        }
+
+        @Override
+        boolean supportsTcpFastOpen() {
+            return false;
+        }
+
+        @Override
+        void enableTcpFastOpen(ServerBootstrap bootstrap, int queueLength) {
+            LOGGER.warn("TCP_FASTOPEN is not supported by the NIO transport, ignoring it");
+        }
+
+        @Override
+        boolean supportsDomainSockets() {
+            return false;
+        }
+    },
+
+    /**
+     * The Linux native transport based on edge-triggered epoll.
+     */
+    EPOLL {
+        @Override
+        EventLoopGroup createEventLoopGroup(int threads, ThreadFactory factory) {
+            return EpollSupport.createEventLoopGroup(threads, factory);
+        }
+
+        @Override
+        void setIoRatio(EventLoopGroup group, int ratio) {
+            EpollSupport.setIoRatio(group, ratio);
+        }
+
+        @Override
+        Class<? extends ServerChannel> serverChannelType() {
+            return EpollSupport.serverChannelType();
+        }
+
+        @Override
+        boolean supportsReusePort() {
+            return true;
+        }
+
+        @Override
+        void enableReusePort(ServerBootstrap bootstrap) {
+            EpollSupport.enableReusePort(bootstrap);
+        }
+
+        @Override
+        boolean supportsTcpFastOpen() {
+            return true;
+        }
+
+        @Override
+        void enableTcpFastOpen(ServerBootstrap bootstrap, int queueLength) {
+            EpollSupport.enableTcpFastOpen(bootstrap, queueLength);
+        }
+
+        @Override
+        boolean supportsDomainSockets() {
+            return true;
+        }
+    };
+
+    /**
+     * The configuration key used to select the transport.
+     */
+    public static final String KEY_TRANSPORT = "netty.transport";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger("wisdom-netty-engine");
+
+    /**
+     * Creates an event loop group for this transport.
+     *
+     * @param threads the number of threads, {@literal 0} to use the Netty default
+     * @param factory the factory creating the event loop threads
+     * @return the new event loop group
+     */
+    abstract EventLoopGroup createEventLoopGroup(int threads, ThreadFactory factory);
+
+    /**
+     * Sets the percentage of time the event loops of the given group spend on I/O (the rest is spent on tasks).
+     *
+     * @param group the group, created by this transport
+     * @param ratio the ratio, between 1 and 100
+     */
+    abstract void setIoRatio(EventLoopGroup group, int ratio);
+
+    /**
+     * @return the type of server channel to use with this transport.
+     */
+    abstract Class<? extends ServerChannel> serverChannelType();
+
+    /**
+     * @return whether or not several server sockets can be bound on the same port (SO_REUSEPORT).
+     */
+    abstract boolean supportsReusePort();
+
+    /**
+     * Configures the given bootstrap to set SO_REUSEPORT on the server sockets. Transports not supporting it ignore
+     * the option (with a warning).
+     *
+     * @param bootstrap the bootstrap
+     */
+    abstract void enableReusePort(ServerBootstrap bootstrap);
+
+    /**
+     * @return whether or not TCP_FASTOPEN can be enabled on the server sockets.
+     */
+    abstract boolean supportsTcpFastOpen();
+
+    /**
+     * Configures the given bootstrap to enable TCP_FASTOPEN on the server sockets. Transports not supporting it
+     * ignore the option (with a warning).
+     *
+     * @param bootstrap   the bootstrap
+     * @param queueLength the maximum length of the queue of pending TFO connections
+     */
+    abstract void enableTcpFastOpen(ServerBootstrap bootstrap, int queueLength);
+
+    /**
+     * @return whether or not the transport can listen on Unix domain sockets. Domain socket listeners are bound by
+     * the server using {@link EpollSupport}, once this method has returned {@literal true}.
+     */
+    abstract boolean supportsDomainSockets();
+
+    /**
+     * Selects the transport from the application configuration ({@literal netty.transport}). It falls back to NIO
+     * if the requested transport is unknown or not available on the current platform. {@literal io_uring} is
+     * accepted but mapped to epoll (when available) as the io_uring transport requires Netty 4.1.
+     *
+     * @param configuration the application configuration
+     * @return the transport to use
+     */
+    public static Transport fromConfiguration(ApplicationConfiguration configuration) {
+        String name = configuration.getWithDefault(KEY_TRANSPORT, "nio");
+        if (name == null || "nio".equalsIgnoreCase(name)) {
+            return NIO;
+        }
+        if ("io_uring".equalsIgnoreCase(name) || "iouring".equalsIgnoreCase(name)) {
+            // The io_uring transport is an incubator module only built against Netty 4.1, it cannot run on the
+            // Netty line used by the engine. Use the closest native transport instead.
+            if (EpollSupport.isAvailable()) {
+                LOGGER.warn("The io_uring transport is not supported by this Netty version, using epoll instead");
+                return EPOLL;
+            }
+            LOGGER.warn("The io_uring transport is not supported by this Netty version, and epoll is not " +
+                    "available ({}), falling back to NIO", EpollSupport.unavailabilityCause());
+            return NIO;
+        }
+        if ("epoll".equalsIgnoreCase(name)) {
+            if (EpollSupport.isAvailable()) {
+                return EPOLL;
+            }
+            LOGGER.warn("The epoll transport is not available on this platform ({}), falling back to NIO",
+                    EpollSupport.unavailabilityCause());
+            return NIO;
+        }
+        LOGGER.warn("Unknown transport '{}', falling back to NIO", name);
+        return NIO;
+    }
+}
@@ -20,7 +20,11 @@
 package org.wisdom.engine.server;
 
 import akka.dispatch.OnComplete;
-import io.netty.buffer.Unpooled;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
@@ -30,6 +34,9 @@ import io.netty.handler.codec.http.HttpMethod;
 import io.netty.handler.codec.http.multipart.*;
 import io.netty.handler.codec.http.websocketx.*;
 import io.netty.handler.stream.ChunkedStream;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.Timeout;
+import io.netty.util.TimerTask;
 import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -48,9 +55,14 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.util.Arrays;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static io.netty.handler.codec.http.HttpHeaders.Names.*;
 import static io.netty.handler.codec.http.HttpHeaders.isKeepAlive;
@@ -83,6 +95,37 @@ public class WisdomHandler extends SimpleChannelInboundHandler<Object> {
      */
     private static final int HANDSHAKE_UNSUPPORTED = 3;
 
+    /**
+     * The maximum length of the request bodies (in bytes), checked before reading the body.
+     */
+    private static final String KEY_MAX_LENGTH = "netty.request.max.length";
+
+    /**
+     * What to do with the connection once a request exceeding the maximum length is rejected: {@literal close}
+     * (the default) or {@literal drain}.
+     */
+    private static final String KEY_MAX_LENGTH_ACTION = "netty.request.max.length.action";
+
+    /**
+     * The maximum length of the url-encoded form bodies (in bytes), stored completely before being parsed.
+     */
+    private static final String KEY_FORM_MAX_LENGTH = "netty.request.form.max.length";
+
+    /**
+     * The default maximum length of the url-encoded form bodies: 1 MB.
+     */
+    private static final int DEFAULT_FORM_MAX_LENGTH = 1024 * 1024;
+
+    /**
+     * The path prefixes of the routes receiving their body as a stream.
+     */
+    private static final String KEY_STREAMING_PATHS = "netty.streaming.paths";
+
+    /**
+     * The number of bytes buffered by a streamed body before the channel stops reading.
+     */
+    private static final String KEY_STREAMING_BUFFER = "netty.streaming.buffer";
+
     /**
      * The server name returned in the SERVER header.
      */
@@ -90,6 +133,10 @@ public class WisdomHandler extends SimpleChannelInboundHandler<Object> {
             BuildConstants.NETTY_VERSION;
 
     private final ServiceAccessor accessor;
+    private final ConnectionTracker tracker;
+    private final InvocationExecutor invoker;
+    private final RequestTimeouts timeouts;
+    private final Bulkheads bulkheads;
     private WebSocketServerHandshaker handshaker;
 
     static {
@@ -106,14 +153,90 @@ public class WisdomHandler extends SimpleChannelInboundHandler<Object> {
     private ContextFromNetty context;
     private HttpRequest request;
     private HttpPostRequestDecoder decoder;
+    private Channel channel;
+
+    /**
+     * Whether the invocation of the current request has been submitted to the invocation executor. Until the
+     * response is written, the channel does not read, and the messages already decoded are kept in
+     * {@link #pending}.
+     */
+    private boolean offloaded;
+    private final Deque<Object> pending = new ArrayDeque<>();
+
+    /**
+     * The maximum length of the request bodies, {@literal 0} if not limited.
+     */
+    private final long maxLength;
+
+    /**
+     * The maximum length of the url-encoded form bodies, always limited as they are not capped when stored.
+     */
+    private final long formMaxLength;
+
+    /**
+     * Whether the body of a rejected request is read and discarded (keeping the connection open), or the connection
+     * is closed.
+     */
+    private final boolean drainRejected;
+
+    /**
+     * The number of body bytes received for the current request.
+     */
+    private long received;
+
+    /**
+     * Whether the content of the current request is discarded, because the request has been rejected.
+     */
+    private boolean discarding;
+
+    /**
+     * Whether the body of the current request is a multipart form, decoded by the {@link HttpPostRequestDecoder}.
+     */
+    private boolean multipart;
+
+    /**
+     * Whether the body of the current request is an url-encoded form, parsed once the whole body is received.
+     */
+    private boolean urlEncoded;
+
+    /**
+     * The path prefixes of the routes receiving their body as a stream, and the size of the stream buffer.
+     */
+    private final List<String> streamingPaths;
+    private final int streamingBuffer;
+
+    /**
+     * The body of the current request, if it is streamed.
+     */
+    private RequestBodyStream bodyStream;
 
     /**
      * Creates the handler.
      *
-     * @param accessor the structure letting the handler accesses the different required services.
+     * @param accessor  the structure letting the handler accesses the different required services.
+     * @param tracker   the structure tracking the connections and the requests in progress.
+     * @param invoker   the executor running the route invocations.
+     * @param timeouts  the deadlines of the requests waiting for an async result.
+     * @param bulkheads the bulkheads isolating groups of routes.
      */
-    public WisdomHandler(ServiceAccessor accessor) {
+    public WisdomHandler(ServiceAccessor accessor, ConnectionTracker tracker, InvocationExecutor invoker,
+                         RequestTimeouts timeouts, Bulkheads bulkheads) {
         this.accessor = accessor;
+        this.tracker = tracker;
+        this.invoker = invoker;
+        this.timeouts = timeouts;
+        this.bulkheads = bulkheads;
+        this.maxLength = Math.max(0, accessor.getConfiguration().getIntegerWithDefault(KEY_MAX_LENGTH, 0));
+        int formLength = accessor.getConfiguration().getIntegerWithDefault(KEY_FORM_MAX_LENGTH,
+                DEFAULT_FORM_MAX_LENGTH);
+        this.formMaxLength = formLength <= 0 ? DEFAULT_FORM_MAX_LENGTH : formLength;
+        this.drainRejected = "drain".equalsIgnoreCase(
+                accessor.getConfiguration().getWithDefault(KEY_MAX_LENGTH_ACTION, "close"));
+        String paths = accessor.getConfiguration().get(KEY_STREAMING_PATHS);
+        this.streamingPaths = paths == null ? Collections.<String>emptyList()
+                : ImmutableList.copyOf(Splitter.on(',').trimResults().omitEmptyStrings().split(paths));
+        int buffer = accessor.getConfiguration().getIntegerWithDefault(KEY_STREAMING_BUFFER, 256 * 1024);
+        this.streamingBuffer = buffer <= 0 ? 256 * 1024 : buffer;
     }
 
     private static String getWebSocketLocation(HttpRequest req) {
@@ -123,6 +246,15 @@ public class WisdomHandler extends SimpleChannelInboundHandler<Object> {
 
     @Override
     protected void channelRead0(ChannelHandlerContext ctx, Object msg) {
+        if (bodyStream != null && msg instanceof HttpContent) {
+            stream(ctx, (HttpContent) msg);
+            return;
+        }
+        if (offloaded) {
+            // Pipelined messages decoded while the current request is processed by the invocation executor.
+            pending.add(ReferenceCountUtil.retain(msg));
+            return;
+        }
         if (msg instanceof HttpObject) {
             handleHttpRequest(ctx, (HttpObject) msg);
         } else if (msg instanceof WebSocketFrame) {
@@ -160,7 +292,9 @@ public class WisdomHandler extends SimpleChannelInboundHandler<Object> {
                 }
             }, accessor.getSystem().system().dispatcher());
         } else if (frame instanceof BinaryWebSocketFrame) {
-            final byte[] content = Arrays.copyOf(frame.content().array(), frame.content().array().length);
+            // The frame content may be a direct buffer, so copy it without relying on the backing array.
+            final byte[] content = new byte[frame.content().readableBytes()];
+            frame.content().getBytes(frame.content().readerIndex(), content);
             accessor.getSystem().dispatch(new Callable<Void>() {
                 @Override
                 public Void call() throws Exception {
@@ -198,28 +332,219 @@ public class WisdomHandler extends SimpleChannelInboundHandler<Object> {
                     // No handshake attempted, continue.
                     break;
             }
+            channel = ctx.channel();
+            tracker.requestStarted(channel);
+            received = 0;
+            discarding = false;
+            multipart = ContextFromNetty.isMultipart(request);
+            urlEncoded = !multipart && ContextFromNetty.isUrlEncodedForm(request);
+            if (!acceptBody(ctx)) {
+                return;
+            }
+            if (startStreaming(ctx)) {
+                return;
+            }
+        }
+
+        if (discarding) {
+            // The request has already been answered, its content is ignored.
+            if (req instanceof LastHttpContent) {
+                discarding = false;
+            }
+            return;
         }
 
         if (req instanceof HttpContent) {
+            received += ((HttpContent) req).content().readableBytes();
+            long limit = bodyLimit();
+            if (limit > 0 && received > limit) {
+                // The announced length was wrong, or the body is chunked.
+                reject(ctx, HttpResponseStatus.REQUEST_ENTITY_TOO_LARGE, !drainRejected);
+                discarding = !(req instanceof LastHttpContent);
+                return;
+            }
             // Only valid for put and post.
             if (request.getMethod().equals(HttpMethod.POST) || request.getMethod().equals(HttpMethod.PUT)) {
-                if (decoder == null) {
-                    decoder = new HttpPostRequestDecoder(DATA_FACTORY, request);
+                if (multipart) {
+                    if (decoder == null) {
+                        decoder = new HttpPostRequestDecoder(DATA_FACTORY, request);
+                    }
+                    context.decodeContent(request, (HttpContent) req, decoder);
+                } else {
+                    // The other bodies are only stored, url-encoded forms are decoded once complete.
+                    context.appendContent(request, (HttpContent) req, !urlEncoded);
+                    if (urlEncoded && req instanceof LastHttpContent) {
+                        context.decodeUrlEncodedForm(request);
+                    }
                 }
-                context.decodeContent(request, (HttpContent) req, decoder);
             }
         }
 
         if (req instanceof LastHttpContent) {
             // End of transmission.
-            boolean isAsync = dispatch(context, ctx);
-            if (!isAsync) {
-                cleanup();
+            Bulkheads.Bulkhead bulkhead = bulkheads.find(context.path());
+            if (bulkhead != null) {
+                offload(ctx, context, bulkhead.executor(), bulkhead.rejectionStatus(), true);
+            } else if (invoker.isInline(context.path())) {
+                boolean isAsync = dispatch(context, ctx);
+                if (!isAsync) {
+                    cleanup();
+                }
+            } else {
+                offload(ctx, context, invoker, Status.SERVICE_UNAVAILABLE, true);
+            }
+        }
+
+    }
+
+
+    /**
+     * Checks whether the body of the current request is accepted, before reading it. Requests announcing a body
+     * larger than {@literal netty.request.max.length} (or {@literal netty.request.form.max.length} for url-encoded
+     * forms) are rejected with a {@literal 413 Request Entity Too Large}
+     * response. When the client expects a {@literal 100 Continue} response, it is sent once the request is routed
+     * and accepted, so the body of rejected requests is never transmitted.
+     *
+     * @param ctx the channel context
+     * @return {@literal true} if the body can be read, {@literal false} if the request has been rejected
+     */
+    private boolean acceptBody(ChannelHandlerContext ctx) {
+        boolean expectContinue = HttpHeaders.is100ContinueExpected(request);
+        long declared = HttpHeaders.getContentLength(request, -1);
+        long limit = bodyLimit();
+        if (limit > 0 && declared > limit) {
+            // When the client waits for 100 Continue, the body may never come, so the connection cannot be drained.
+            reject(ctx, HttpResponseStatus.REQUEST_ENTITY_TOO_LARGE, expectContinue || !drainRejected);
+            return false;
+        }
+        if (expectContinue) {
+            RouteCache.Resolution resolution = accessor.getRoutes().resolve(accessor.getRouter(),
+                    context.request().method(), context.path());
+            if (resolution == null || resolution.route().isUnbound()) {
+                reject(ctx, HttpResponseStatus.NOT_FOUND, true);
+                return false;
+            }
+            ctx.writeAndFlush(new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.CONTINUE));
+        }
+        return true;
+    }
+
+    /**
+     * Gets the maximum length of the body of the current request. Url-encoded forms are always limited, as they are
+     * stored completely before being parsed.
+     *
+     * @return the maximum length, {@literal 0} if not limited
+     */
+    private long bodyLimit() {
+        if (!urlEncoded) {
+            return maxLength;
+        }
+        return maxLength > 0 ? Math.min(maxLength, formMaxLength) : formMaxLength;
+    }
+
+    /**
+     * Dispatches the current request on its head if its route receives the body as a stream. The invocation is
+     * offloaded, and the chunks are pushed to a {@link RequestBodyStream} stored in the request data. Streaming
+     * requires an executor (the invocation pool, virtual threads or a bulkhead), the body is buffered as usual
+     * otherwise.
+     *
+     * @param ctx the channel context
+     * @return {@literal true} if the request is streamed
+     */
+    private boolean startStreaming(ChannelHandlerContext ctx) {
+        String path = context.path();
+        if (streamingPaths.isEmpty() || !isStreamed(path)) {
+            return false;
+        }
+        Bulkheads.Bulkhead bulkhead = bulkheads.find(path);
+        InvocationExecutor executor;
+        int rejectionStatus;
+        if (bulkhead != null) {
+            executor = bulkhead.executor();
+            rejectionStatus = bulkhead.rejectionStatus();
+        } else if (!invoker.isInline(path)) {
+            executor = invoker;
+            rejectionStatus = Status.SERVICE_UNAVAILABLE;
+        } else {
+            LOGGER.debug("Cannot stream the body of {}, route invocations are not offloaded", path);
+            return false;
+        }
+        bodyStream = new RequestBodyStream(ctx.channel(), streamingBuffer);
+        context.request().data().put(RequestBodyStream.DATA_KEY, bodyStream);
+        if (!HttpHeaders.isTransferEncodingChunked(request) && HttpHeaders.getContentLength(request, 0) == 0) {
+            // No body.
+            bodyStream.complete();
+            bodyStream = null;
+            offload(ctx, context, executor, rejectionStatus, true);
+        } else {
+            offload(ctx, context, executor, rejectionStatus, false);
+        }
+        return true;
+    }
+
+    private boolean isStreamed(String path) {
+        for (String prefix : streamingPaths) {
+            if (path.startsWith(prefix)) {
+                return true;
             }
         }
+        return false;
+    }
 
+    /**
+     * Pushes a chunk of a streamed body. Once the last chunk is received, the channel stops reading until the
+     * response is written, like for the other offloaded requests.
+     * <p>
+     * When the body exceeds {@literal netty.request.max.length}, the stream fails and the request is rejected with a
+     * {@literal 413 Request Entity Too Large} response, like a buffered body. The result of the invocation, still in
+     * progress, is discarded.
+     *
+     * @param ctx     the channel context
+     * @param content the chunk
+     */
+    private void stream(ChannelHandlerContext ctx, HttpContent content) {
+        received += content.content().readableBytes();
+        if (maxLength > 0 && received > maxLength) {
+            bodyStream.fail(new IOException("The request body exceeds the maximum length (" + maxLength
+                    + " bytes)"));
+            bodyStream = null;
+            reject(ctx, HttpResponseStatus.REQUEST_ENTITY_TOO_LARGE, !drainRejected);
+            discarding = !(content instanceof LastHttpContent);
+            // Until the invocation completes, the channel does not read the remaining content.
+            ctx.channel().config().setAutoRead(false);
+            return;
+        }
+        bodyStream.offer(content.content());
+        if (content instanceof LastHttpContent) {
+            bodyStream.complete();
+            bodyStream = null;
+            ctx.channel().config().setAutoRead(false);
+        }
     }
 
+    /**
+     * Rejects the current request before its body is read. The context is cleaned up, and the remaining content of
+     * the request is discarded.
+     *
+     * @param ctx    the channel context
+     * @param status the status of the response
+     * @param close  whether the connection is closed once the response is written
+     */
+    private void reject(ChannelHandlerContext ctx, HttpResponseStatus status, boolean close) {
+        LOGGER.debug("Rejecting {} {} with {}", request.getMethod(), request.getUri(), status);
+        boolean keepAlive = !close && !tracker.isDraining() && isKeepAlive(request);
+        FullHttpResponse response = new DefaultFullHttpResponse(request.getProtocolVersion(), status);
+        response.headers().set(CONTENT_LENGTH, 0);
+        response.headers().set(HeaderNames.SERVER, SERVER_NAME);
+        response.headers().set(CONNECTION, keepAlive ? HttpHeaders.Values.KEEP_ALIVE : HttpHeaders.Values.CLOSE);
+        ChannelFuture future = ctx.writeAndFlush(response);
+        requestCompleted(future);
+        if (!keepAlive) {
+            future.addListener(ChannelFutureListener.CLOSE);
+        }
+        discarding = true;
+        cleanup();
+    }
 
     /**
      * Manages the websocket handshake.
@@ -270,15 +595,48 @@ public class WisdomHandler extends SimpleChannelInboundHandler<Object> {
             }
         }
 
+        if (bodyStream != null) {
+            bodyStream.fail(new IOException("The connection has been closed before the end of the request body"));
+            bodyStream = null;
+        }
+
         if (context != null) {
             context.cleanup();
         }
         Context.CONTEXT.remove();
         context = null;
+        requestCompleted();
+        releasePending();
 
         ctx.close();
     }
 
+    private void requestCompleted() {
+        if (channel != null) {
+            tracker.requestCompleted(channel);
+            channel = null;
+        }
+    }
+
+    /**
+     * Completes the current request once the last write of its response is done (successfully or not), so the
+     * drain does not close the connection while the response is still being sent.
+     *
+     * @param lastWrite the future of the last write of the response
+     */
+    private void requestCompleted(ChannelFuture lastWrite) {
+        if (channel != null) {
+            final Channel completed = channel;
+            channel = null;
+            lastWrite.addListener(new ChannelFutureListener() {
+                @Override
+                public void operationComplete(ChannelFuture future) throws Exception {
+                    tracker.requestCompleted(completed);
+                }
+            });
+        }
+    }
+
     private void cleanup() {
         // Release all resources, especially uploaded file.
         request = null;
@@ -297,17 +655,166 @@ public class WisdomHandler extends SimpleChannelInboundHandler<Object> {
         }
         Context.CONTEXT.remove();
         context = null;
+        requestCompleted();
     }
 
-    private boolean dispatch(Context context, ChannelHandlerContext ctx) {
+    private boolean dispatch(ContextFromNetty context, ChannelHandlerContext ctx) {
         LOGGER.debug("Dispatching {} {}", context.request().method(), context.path());
         // 2 Register context
         Context.CONTEXT.set(context);
         // 3 Get route for context
-        Route route = accessor.getRouter().getRouteFor(context.request().method(), context.path());
-        Result result;
+        Route route = resolve(context);
+        Result result = null;
+        if (route != null) {
+            result = invoke(route);
+        }
+        return handleResult(ctx, context, route, result);
+    }
+
+    /**
+     * Resolves the route of the given context (using the route cache), and attaches it, with its path parameters,
+     * to the context.
+     *
+     * @param context the context
+     * @return the route, {@literal null} if the router has not returned a route
+     */
+    private Route resolve(ContextFromNetty context) {
+        RouteCache.Resolution resolution = accessor.getRoutes().resolve(accessor.getRouter(),
+                context.request().method(), context.path());
+        if (resolution == null) {
+            return null;
+        }
+        context.route(resolution.route(), resolution.pathParameters());
+        return resolution.route();
+    }
+
+    /**
+     * Submits the route lookup and invocation to the invocation executor (or to the executor of a bulkhead). The
+     * channel stops reading until the response is written. The result is handled back on the event loop of the
+     * channel. If the executor rejects the invocation (queue full), a response with the rejection status is
+     * written.
+     * <p>
+     * When the route returns an async result and the executor is a bulkhead executor or uses virtual threads, the
+     * result is computed by the same task. Submitting it again would take a second slot of the executor, and would
+     * be rejected by a bulkhead without queue.
+     *
+     * @param ctx             the channel context
+     * @param context         the HTTP context
+     * @param executor        the executor
+     * @param rejectionStatus the status of the response sent if the executor rejects the invocation
+     * @param suspendReads    whether the channel stops reading immediately, {@literal false} when the body is
+     *                        streamed (the reads are then driven by the consumption of the body)
+     */
+    private void offload(final ChannelHandlerContext ctx, final ContextFromNetty context,
+                         InvocationExecutor executor, int rejectionStatus, boolean suspendReads) {
+        LOGGER.debug("Offloading {} {}", context.request().method(), context.path());
+        offloaded = true;
+        if (suspendReads) {
+            ctx.channel().config().setAutoRead(false);
+        }
+        final HttpRequest current = request;
+        final boolean computeAsync = executor != invoker || executor.isVirtual();
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    Context.CONTEXT.set(context);
+                    Route route = null;
+                    Result result = null;
+                    AsyncComputation computation = null;
+                    try {
+                        route = resolve(context);
+                        if (route != null) {
+                            result = invoke(route);
+                        }
+                        if (computeAsync && result instanceof AsyncResult) {
+                            computation = new AsyncComputation((AsyncResult) result,
+                                    scheduleDeadline(ctx, current, context));
+                            computation.compute();
+                        }
+                    } catch (Exception e) { //NOSONAR
+                        LOGGER.error("Cannot dispatch the request to " + context.path(), e);
+                        result = Results.internalServerError(e);
+                    } finally {
+                        Context.CONTEXT.remove();
+                    }
+                    final Route selected = route;
+                    final Result computed = result;
+                    final AsyncComputation async = computation;
+                    ctx.executor().execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            completeOffloaded(ctx, context, selected, computed, async);
+                        }
+                    });
+                }
+            });
+        } catch (RejectedExecutionException e) { //NOSONAR
+            LOGGER.warn("The invocation queue is full, rejecting {} {}", context.request().method(), context.path());
+            completeOffloaded(ctx, context, null, Results.status(rejectionStatus), null);
+        }
+    }
+
+    /**
+     * Handles the result of an offloaded invocation, on the event loop of the channel. Once done, the channel reads
+     * again and the pending pipelined messages are processed.
+     *
+     * @param async the async result computed by the offloaded task, {@literal null} if the result has not been
+     *              computed by the task
+     */
+    private void completeOffloaded(ChannelHandlerContext ctx, ContextFromNetty context, Route route,
+                                   Result result, AsyncComputation async) {
+        if (bodyStream != null) {
+            // The response is written before the end of the streamed body, the remaining content is discarded.
+            bodyStream.close();
+            bodyStream = null;
+            discarding = true;
+        }
+        // The response may be written by a closed channel, in this case the context has already been cleaned.
+        if (this.context == context) {
+            Context.CONTEXT.set(context);
+            if (async != null) {
+                // Writes the response (and cleans up) unless the request has timed out.
+                writeAsyncResponse(ctx, request, context, async.asyncResult, async.deadline, async.failure,
+                        async.result);
+            } else if (!handleResult(ctx, context, route, result)) {
+                cleanup();
+            }
+        }
+        offloaded = false;
+        ctx.channel().config().setAutoRead(true);
+        while (!offloaded && !pending.isEmpty()) {
+            Object msg = pending.poll();
+            try {
+                channelRead0(ctx, msg);
+            } finally {
+                ReferenceCountUtil.release(msg);
+            }
+        }
+        // This task is not part of a read batch, no channelReadComplete flushes the response and the responses of
+        // the replayed requests written inline: they are flushed together.
+        ctx.flush();
+    }
+
+    private void releasePending() {
+        while (!pending.isEmpty()) {
+            ReferenceCountUtil.release(pending.poll());
+        }
+    }
 
-        if (route == null) {
+    /**
+     * Writes the response for the given result. The caller cleans the context up, unless the response is written
+     * asynchronously. The response is not flushed: it is flushed at the end of the current read batch (or of the
+     * task completing an offloaded invocation).
+     *
+     * @param ctx     the channel context
+     * @param context the HTTP context
+     * @param route   the route, {@literal null} if the request has not been routed
+     * @param result  the result, {@literal null} if the request has not been routed
+     * @return {@literal true} if the response is written asynchronously
+     */
+    private boolean handleResult(ChannelHandlerContext ctx, Context context, Route route, Result result) {
+        if (route == null && result == null) {
             // 3.1 : no route to destination
             // Should never return null, but an unbound route instead.
             LOGGER.error("The router has returned 'null' instead of an unbound route for " + context.path());
@@ -317,11 +824,8 @@ public class WisdomHandler extends SimpleChannelInboundHandler<Object> {
                 return false;
             }
             result = Results.notFound();
-        } else {
+        } else if (route != null) {
             // 3.2 : route found
-            context.route(route);
-            result = invoke(route);
-
             // We have this weird case where we don't have controller (unbound), but are just there to complete the
             // websocket handshake.
             if (route.isUnbound() && handshaker != null) {
@@ -355,7 +859,9 @@ public class WisdomHandler extends SimpleChannelInboundHandler<Object> {
     /**
      * Handling an async result.
      * The controller has returned an async task ( {@link java.util.concurrent.Callable} ) that will be computed
-     * asynchronously using the Akka system dispatcher.
+     * asynchronously using the Akka system dispatcher, or on a virtual thread when the invocation executor uses
+     * virtual threads. The async results of the routes of a bulkhead are computed by the offloaded task having
+     * invoked the route (see {@link #offload}).
      * The callable is not called using the Netty worker thread.
      *
      * @param ctx         the channel context
@@ -368,6 +874,11 @@ public class WisdomHandler extends SimpleChannelInboundHandler<Object> {
             final HttpRequest request,
             final Context context,
             final AsyncResult asyncResult) {
+        final Deadline deadline = scheduleDeadline(ctx, request, context);
+        if (invoker.isVirtual()) {
+            computeAsyncResult(invoker, Status.SERVICE_UNAVAILABLE, ctx, request, context, asyncResult, deadline);
+            return;
+        }
         Future<Result> future = accessor.getSystem().dispatchResultWithContext(asyncResult.callable(), context);
 
         future.onComplete(new OnComplete<Result>() {
@@ -378,22 +889,133 @@ public class WisdomHandler extends SimpleChannelInboundHandler<Object> {
              * @param result the successfully computed result.
              */
             public void onComplete(Throwable failure, Result result) {
-                if (failure != null) {
-                    //We got a failure, handle it here
-                    writeResponse(ctx, request, context, Results.internalServerError(failure), false, true);
-                } else {
-                    // We got a result, write it here.
-                    // Merge the headers of the initial result and the async results.
-                    final Map<String, String> headers = result.getHeaders();
-                    for (Map.Entry<String, String> header : asyncResult.getHeaders().entrySet()) {
-                        if (!headers.containsKey(header.getKey())) {
-                            headers.put(header.getKey(), header.getValue());
+                writeAsyncResponse(ctx, request, context, asyncResult, deadline, failure, result);
+            }
+        }, accessor.getSystem().fromThread());
+    }
+
+    /**
+     * Computes an async result using the given executor (instead of the Akka dispatcher). The HTTP context is
+     * attached to the executing thread during the computation, and the response is written on the event loop of the
+     * channel.
+     *
+     * @param executor        the executor
+     * @param rejectionStatus the status of the response sent if the executor rejects the computation
+     * @param ctx         the channel context
+     * @param request     the request
+     * @param context     the HTTP context
+     * @param asyncResult the async result
+     * @param deadline    the deadline of the request
+     */
+    private void computeAsyncResult(
+            final InvocationExecutor executor,
+            final int rejectionStatus,
+            final ChannelHandlerContext ctx,
+            final HttpRequest request,
+            final Context context,
+            final AsyncResult asyncResult,
+            final Deadline deadline) {
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    Result computed;
+                    Throwable failure = null;
+                    Context.CONTEXT.set(context);
+                    try {
+                        computed = asyncResult.callable().call();
+                    } catch (Throwable e) { //NOSONAR
+                        computed = null;
+                        failure = e;
+                    } finally {
+                        Context.CONTEXT.remove();
+                    }
+                    final Result result = computed;
+                    final Throwable error = failure;
+                    ctx.executor().execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            writeAsyncResponse(ctx, request, context, asyncResult, deadline, error, result);
+                        }
+                    });
+                }
+            });
+        } catch (RejectedExecutionException e) { //NOSONAR
+            LOGGER.warn("Cannot compute the async result of {} {}, the executor is full", context.request().method(),
+                    context.path());
+            writeAsyncResponse(ctx, request, context, asyncResult, deadline, null, Results.status(rejectionStatus));
+        }
+    }
+
+    /**
+     * Schedules the deadline of a request waiting for an async result. When the deadline expires before the
+     * result is computed, a {@literal 504 Gateway Timeout} response is written and the context is cleaned up. The
+     * result computed later is discarded.
+     *
+     * @param ctx     the channel context
+     * @param request the request
+     * @param context the HTTP context
+     * @return the deadline
+     */
+    private Deadline scheduleDeadline(final ChannelHandlerContext ctx, final HttpRequest request,
+                                      final Context context) {
+        final Deadline deadline = new Deadline();
+        long timeout = timeouts.timeoutFor(context.path());
+        if (timeout <= 0) {
+            return deadline;
+        }
+        deadline.timeout = timeouts.schedule(new TimerTask() {
+            @Override
+            public void run(Timeout timeout) {
+                if (!deadline.complete()) {
+                    // The result has been computed in the meantime.
+                    return;
+                }
+                timeouts.timedOut(context.route());
+                LOGGER.warn("The request {} {} has timed out", context.request().method(), context.path());
+                ctx.executor().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        // If the connection is closed, the context has already been cleaned up.
+                        if (ctx.channel().isActive()) {
+                            boolean encoding = writeResponse(ctx, request, context,
+                                    Results.status(Status.GATEWAY_TIMEOUT), false, true);
+                            if (!encoding) {
+                                cleanup();
+                            }
                         }
                     }
-                    writeResponse(ctx, request, context, result, true, true);
+                });
+            }
+        }, timeout);
+        return deadline;
+    }
+
+    private void writeAsyncResponse(ChannelHandlerContext ctx, HttpRequest request, Context context,
+                                    AsyncResult asyncResult, Deadline deadline, Throwable failure, Result result) {
+        if (!deadline.complete()) {
+            LOGGER.debug("Discarding the result of {} {}, the request has timed out", context.request().method(),
+                    context.path());
+            return;
+        }
+        boolean encoding;
+        if (failure != null) {
+            //We got a failure, handle it here
+            encoding = writeResponse(ctx, request, context, Results.internalServerError(failure), false, true);
+        } else {
+            // We got a result, write it here.
+            // Merge the headers of the initial result and the async results.
+            final Map<String, String> headers = result.getHeaders();
+            for (Map.Entry<String, String> header : asyncResult.getHeaders().entrySet()) {
+                if (!headers.containsKey(header.getKey())) {
+                    headers.put(header.getKey(), header.getValue());
                 }
             }
-        }, accessor.getSystem().fromThread());
+            encoding = writeResponse(ctx, request, context, result, true, true);
+        }
+        if (!encoding) {
+            cleanup();
+        }
     }
 
     private InputStream processResult(Context context, Result result) throws Exception {
@@ -406,12 +1028,13 @@ public class WisdomHandler extends SimpleChannelInboundHandler<Object> {
         if (renderable.requireSerializer()) {
             ContentSerializer serializer = null;
             if (result.getContentType() != null) {
-                serializer = accessor.getContentEngines().getContentSerializerForContentType(result
-                        .getContentType());
+                serializer = accessor.getSerializers().forContentType(accessor.getContentEngines(),
+                        result.getContentType());
             }
             if (serializer == null) {
                 // Try with the Accept type
-                serializer = accessor.getContentEngines().getBestSerializer(context.request().mediaTypes());
+                serializer = accessor.getSerializers().forAccept(accessor.getContentEngines(),
+                        context.request().getHeader(HeaderNames.ACCEPT), context.request().mediaTypes());
                 if (serializer != null) {
                     // Set CONTENT_TYPE
                     result.with(HeaderNames.CONTENT_TYPE, serializer.getContentType());
@@ -437,12 +1060,25 @@ public class WisdomHandler extends SimpleChannelInboundHandler<Object> {
         return renderable.render(context, result);
     }
 
+    /**
+     * Renders the result and writes the response. The context is not cleaned up, unless the response is encoded
+     * asynchronously: the cleanup is then done once the encoded response is written.
+     *
+     * @param ctx                         the channel context
+     * @param request                     the request
+     * @param context                     the HTTP context
+     * @param result                      the result
+     * @param handleFlashAndSessionCookie whether the flash and session cookies are written
+     * @param flush                       whether the response is flushed immediately, otherwise the caller flushes
+     *                                    it (responses encoded asynchronously are always flushed)
+     * @return {@literal true} if the response is encoded (and written) asynchronously
+     */
     private boolean writeResponse(
             final ChannelHandlerContext ctx,
             final HttpRequest request, Context context,
             Result result,
             boolean handleFlashAndSessionCookie,
-            boolean fromAsync) {
+            boolean flush) {
         //TODO Refactor this method.
 
         // Render the result.
@@ -472,14 +1108,14 @@ public class WisdomHandler extends SimpleChannelInboundHandler<Object> {
 
             if (codec != null) { // Encode Async
                 result.with(CONTENT_ENCODING, codec.getEncodingType());
-                proceedAsyncEncoding(context, codec, stream, ctx, result, success, handleFlashAndSessionCookie,
-                        fromAsync);
+                proceedAsyncEncoding(context, codec, stream, ctx, result, success, handleFlashAndSessionCookie);
                 return true;
             }
             //No encoding possible, do the finalize
         }
 
-        return finalizeWriteReponse(context, ctx, result, stream, success, handleFlashAndSessionCookie, fromAsync);
+        finalizeWriteReponse(context, ctx, result, stream, success, handleFlashAndSessionCookie, flush);
+        return false;
     }
 
     private void proceedAsyncEncoding(
@@ -489,8 +1125,7 @@ public class WisdomHandler extends SimpleChannelInboundHandler<Object> {
             final ChannelHandlerContext ctx,
             final Result result,
             final boolean success,
-            final boolean handleFlashAndSessionCookie,
-            final boolean fromAsync) {
+            final boolean handleFlashAndSessionCookie) {
 
 
         Future<InputStream> future = accessor.getSystem().dispatchInputStream(new Callable<InputStream>() {
@@ -506,19 +1141,20 @@ public class WisdomHandler extends SimpleChannelInboundHandler<Object> {
                     throws Throwable {
                 finalizeWriteReponse(httpContext, ctx, result, encodedStream, success, handleFlashAndSessionCookie,
                         true);
+                cleanup();
             }
 
         }, accessor.getSystem().fromThread());
     }
 
-    private boolean finalizeWriteReponse(
+    private void finalizeWriteReponse(
             final Context httpContext,
             final ChannelHandlerContext ctx,
             Result result,
             InputStream stream,
             boolean success,
             boolean handleFlashAndSessionCookie,
-            boolean fromAsync) {
+            boolean flush) {
 
         Renderable<?> renderable = result.getRenderable();
         if (renderable == null) {
@@ -526,11 +1162,13 @@ public class WisdomHandler extends SimpleChannelInboundHandler<Object> {
         }
         final InputStream content = stream;
         // Decide whether to close the connection or not.
-        boolean keepAlive = isKeepAlive(request);
+        // When the server is draining, the connection is closed once the response is written.
+        boolean draining = tracker.isDraining();
+        boolean keepAlive = !draining && isKeepAlive(request);
 
         // Build the response object.
         HttpResponse response;
-        Object res;
+        Object res = null;
 
         boolean isChunked = renderable.mustBeChunked();
 
@@ -546,22 +1184,22 @@ public class WisdomHandler extends SimpleChannelInboundHandler<Object> {
             //keepAlive = false;
             res = new ChunkedStream(content);
         } else {
-            DefaultFullHttpResponse resp = new DefaultFullHttpResponse(request.getProtocolVersion(),
-                    getStatusFromResult(result, success));
-            byte[] cont = new byte[0];
+            // Copy the content directly into a buffer from the channel allocator (pooled by default).
+            ByteBuf buffer = ctx.alloc().buffer();
             try {
-                cont = IOUtils.toByteArray(content);
+                IOUtils.copy(content, new ByteBufOutputStream(buffer));
             } catch (IOException e) {
                 LOGGER.error("Cannot copy the response to " + request.getUri(), e);
+                buffer.clear();
             }
-            resp.headers().set(CONTENT_LENGTH, cont.length);
-            res = Unpooled.copiedBuffer(cont);
+            DefaultFullHttpResponse resp = new DefaultFullHttpResponse(request.getProtocolVersion(),
+                    getStatusFromResult(result, success), buffer);
+            resp.headers().set(CONTENT_LENGTH, buffer.readableBytes());
             if (keepAlive) {
                 // Add keep alive header as per:
                 // - http://www.w3.org/Protocols/HTTP/1.1/draft-ietf-http-v11-spec-01.html#Connection
                 resp.headers().set(CONNECTION, HttpHeaders.Values.KEEP_ALIVE);
             }
-            resp.content().writeBytes(cont);
             response = resp;
         }
 
@@ -569,6 +1207,10 @@ public class WisdomHandler extends SimpleChannelInboundHandler<Object> {
             response.headers().set(header.getKey(), header.getValue());
         }
 
+        if (draining) {
+            response.headers().set(CONNECTION, HttpHeaders.Values.CLOSE);
+        }
+
         if (!result.getHeaders().containsKey(HeaderNames.SERVER)) {
             // Add the server metadata
             response.headers().set(HeaderNames.SERVER, SERVER_NAME);
@@ -583,8 +1225,13 @@ public class WisdomHandler extends SimpleChannelInboundHandler<Object> {
 
         // copy cookies / flash and session
         if (handleFlashAndSessionCookie) {
-            httpContext.flash().save(httpContext, result);
-            httpContext.session().save(httpContext, result);
+            if (httpContext instanceof ContextFromNetty) {
+                // Skip the cookies that have not been used.
+                ((ContextFromNetty) httpContext).saveFlashAndSession(result);
+            } else {
+                httpContext.flash().save(httpContext, result);
+                httpContext.session().save(httpContext, result);
+            }
         }
 
         // copy cookies
@@ -595,13 +1242,17 @@ public class WisdomHandler extends SimpleChannelInboundHandler<Object> {
         }
 
         // Send the response and close the connection if necessary.
-        ctx.write(response);
-
+        // Unless asked to flush, the full response is only written: the responses to the pipelined requests read in
+        // the same batch are flushed together, with a single syscall.
         final ChannelFuture writeFuture;
         if (isChunked) {
+            ctx.write(response);
             writeFuture = ctx.write(res);
+        } else if (flush) {
+            // The full response already contains the content.
+            writeFuture = ctx.writeAndFlush(response);
         } else {
-            writeFuture = ctx.writeAndFlush(res);
+            writeFuture = ctx.write(response);
         }
         writeFuture.addListener(new ChannelFutureListener() {
             @Override
@@ -613,23 +1264,18 @@ public class WisdomHandler extends SimpleChannelInboundHandler<Object> {
         if (isChunked) {
             // Write the end marker
             ChannelFuture lastContentFuture = ctx.writeAndFlush(LastHttpContent.EMPTY_LAST_CONTENT);
+            requestCompleted(lastContentFuture);
             if (!keepAlive) {
                 // Close the connection when the whole content is written out.
                 lastContentFuture.addListener(ChannelFutureListener.CLOSE);
             }
         } else {
+            requestCompleted(writeFuture);
             if (!keepAlive) {
                 // Close the connection when the whole content is written out.
                 writeFuture.addListener(ChannelFutureListener.CLOSE);
             }
         }
-
-
-        if (fromAsync) {
-            cleanup();
-        }
-
-        return false;
     }
 
     private HttpResponseStatus getStatusFromResult(Result result, boolean success) {
@@ -655,6 +1301,58 @@ public class WisdomHandler extends SimpleChannelInboundHandler<Object> {
         }
     }
 
+    /**
+     * An async result computed by the offloaded task having invoked the route.
+     */
+    private static final class AsyncComputation {
+        private final AsyncResult asyncResult;
+        private final Deadline deadline;
+        private Result result;
+        private Throwable failure;
+
+        AsyncComputation(AsyncResult asyncResult, Deadline deadline) {
+            this.asyncResult = asyncResult;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Calls the callable of the async result, with the HTTP context attached to the current thread.
+         */
+        void compute() {
+            try {
+                result = asyncResult.callable().call();
+            } catch (Throwable e) { //NOSONAR
+                failure = e;
+            }
+        }
+    }
+
+    /**
+     * The deadline of a request waiting for an async result. The response is written either by the timer or by
+     * the completion of the result, whichever completes the deadline first.
+     */
+    private static final class Deadline {
+        private final AtomicBoolean completed = new AtomicBoolean();
+        private volatile Timeout timeout;
+
+        /**
+         * Completes the deadline.
+         *
+         * @return {@literal true} if the caller has completed the deadline and must write the response,
+         * {@literal false} if it was already completed
+         */
+        boolean complete() {
+            if (!completed.compareAndSet(false, true)) {
+                return false;
+            }
+            Timeout scheduled = timeout;
+            if (scheduled != null) {
+                scheduled.cancel();
+            }
+            return true;
+        }
+    }
+
     @Override
     public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
         LOGGER.error("Exception caught in channel", cause);
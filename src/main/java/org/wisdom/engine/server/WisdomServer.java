@@ -19,20 +19,38 @@
  */
 package org.wisdom.engine.server;
 
+import com.google.common.collect.ImmutableMap;
 import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelOption;
 import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
 import io.netty.channel.group.ChannelGroup;
 import io.netty.channel.group.DefaultChannelGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.util.concurrent.DefaultPromise;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.Future;
 import io.netty.util.concurrent.GlobalEventExecutor;
+import io.netty.util.concurrent.Promise;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.wisdom.api.configuration.ApplicationConfiguration;
 
+import java.io.IOException;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.security.KeyStoreException;
-import java.util.Random;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 /**
  * The Wisdom Server.
@@ -40,6 +58,17 @@ import java.util.Random;
 public class WisdomServer {
 
     private static final String KEY_HTTP_ADDRESS = "http.address";
+    private static final String KEY_ACCEPTORS = "netty.acceptors";
+    private static final String KEY_BOSS_THREADS = "netty.boss.threads";
+    private static final String KEY_WORKER_THREADS = "netty.worker.threads";
+    private static final String KEY_DAEMON_THREADS = "netty.threads.daemon";
+    private static final String KEY_DRAIN_TIMEOUT = "netty.drain.timeout";
+
+    /**
+     * File type mask and socket type of the {@code unix:mode} attribute (see {@code stat(2)}).
+     */
+    private static final int S_IFMT = 0170000;
+    private static final int S_IFSOCK = 0140000;
 
     private static final Logger LOGGER = LoggerFactory.getLogger("wisdom-netty-engine");
     private final ServiceAccessor accessor;
@@ -49,6 +78,19 @@ public class WisdomServer {
     private int httpPort;
     private int httpsPort;
     private InetAddress address;
+    private Transport transport;
+    private String requestedTransport;
+    private int acceptors;
+    private ByteBufAllocator allocator;
+    private InvocationExecutor invoker;
+    private RequestTimeouts timeouts;
+    private AdmissionLimiter limiter;
+    private Bulkheads bulkheads;
+    private List<Listener> listeners = new ArrayList<>();
+    private final ConnectionTracker tracker = new ConnectionTracker();
+    private volatile int drainedConnections;
+    private volatile int forceClosedConnections;
+    private final Promise<Void> ready = new DefaultPromise<>(GlobalEventExecutor.INSTANCE);
 
     /**
      * Creates a new instance of the Wisdom Server.
@@ -64,81 +106,109 @@ public class WisdomServer {
      */
     public void start() throws InterruptedException {
         LOGGER.info("Starting Netty server");
-        httpPort = accessor.getConfiguration().getIntegerWithDefault("netty.http.port", 8080);
-        httpsPort = accessor.getConfiguration().getIntegerWithDefault("netty.https.port", -1);
+        httpPort = -1;
+        httpsPort = -1;
 
         initializeInetAddress();
+        initializeTransport();
 
         group = new DefaultChannelGroup("wisdom-channels", GlobalEventExecutor.INSTANCE);
         // Configure the server.
-        bossGroup = new NioEventLoopGroup();
-        workerGroup = new NioEventLoopGroup();
+        initializeEventLoopGroups();
 
         try {
+            bulkheads = Bulkheads.fromConfiguration(accessor.getConfiguration(),
+                    accessor.getConfiguration().getBooleanWithDefault(KEY_DAEMON_THREADS, false));
+
             // Here we need to start the different channels.
-            // Negative ports disable the channels. Usually, we use -1.
-            // 0 indicates a random port.
-            initializeHTTP();
-            initializeHTTPS();
+            listeners = new ArrayList<>();
+            listeners.addAll(Listener.fromConfiguration(accessor.getConfiguration(), false, address));
+            listeners.addAll(Listener.fromConfiguration(accessor.getConfiguration(), true, address));
+
+            // All listeners are bound in parallel.
+            List<ServerBootstrap> bootstraps = new ArrayList<>();
+            List<ChannelFuture> bindings = new ArrayList<>();
+            for (Listener listener : listeners) {
+                ServerBootstrap bootstrap = bootstrap(listener);
+                bootstraps.add(bootstrap);
+                bindings.add(bootstrap.bind(listener.localAddress()));
+            }
+            for (int i = 0; i < listeners.size(); i++) {
+                Listener listener = listeners.get(i);
+                completeBinding(listener, bootstraps.get(i), bindings.get(i));
+                LOGGER.info("Wisdom is going to serve {} requests on {} ({} listener)",
+                        listener.isSecure() ? "HTTPS" : "HTTP", listener.description(), listener.name());
+                // The first TCP listener of each scheme is the primary one.
+                if (listener.isDomainSocket()) {
+                    continue;
+                }
+                if (listener.isSecure() && httpsPort == -1) {
+                    httpsPort = listener.boundPort();
+                } else if (!listener.isSecure() && httpPort == -1) {
+                    httpPort = listener.boundPort();
+                }
+            }
+            ready.setSuccess(null);
         } catch (Exception e) {
             LOGGER.error("Cannot initialize Wisdom", e);
+            ready.setFailure(e);
             group.close().sync();
             bossGroup.shutdownGracefully().sync();
             workerGroup.shutdownGracefully().sync();
+            invoker.shutdown();
+            timeouts.stop();
+            if (bulkheads != null) {
+                bulkheads.shutdown();
+            }
             onError();
         }
     }
 
-    private void initializeHTTPS() throws Exception {
-        //HTTPS
-        if (httpsPort == 0) {
-            Random random = new Random();
-            for (int i = 0; httpsPort == 0 && i < 30; i++) {
-                int port = 8080 + random.nextInt(10000);
-                try {
-                    LOGGER.debug("Random port lookup - Trying with {}", port);
-                    bind(port, true);
-                    httpsPort = port;
-                    LOGGER.info("Wisdom is going to serve HTTPS requests on port " + httpsPort);
-                } catch (Exception e) {
-                    LOGGER.debug("Cannot bind on port {} (port already used probably)", port, e);
-                }
-            }
-
-            // If the port is still 0, we were not able to bind on any port.
-            if (httpsPort == 0) {
-                throw new IllegalStateException("Cannot find a free port for HTTPS after 30 tries");
-            }
-        } else if (httpsPort >= 0) {
-            bind(httpsPort, true);
-            LOGGER.info("Wisdom is going to serve HTTPS requests on port " + httpsPort);
+    private void initializeTransport() {
+        transport = Transport.fromConfiguration(accessor.getConfiguration());
+        requestedTransport = accessor.getConfiguration().getWithDefault(Transport.KEY_TRANSPORT, "nio");
+        if (requestedTransport == null) {
+            requestedTransport = "nio";
         }
+        acceptors = Math.max(1, accessor.getConfiguration().getIntegerWithDefault(KEY_ACCEPTORS, 1));
+        if (acceptors > 1 && !transport.supportsReusePort()) {
+            LOGGER.warn("The {} transport does not support SO_REUSEPORT, only one acceptor per port is used " +
+                    "(requested: {})", transport, acceptors);
+            acceptors = 1;
+        }
+        LOGGER.info("Using the {} transport with {} acceptor(s) per port (requested transport: {})", transport,
+                acceptors, requestedTransport);
     }
 
-    private void initializeHTTP() throws Exception {
-        // HTTP
-        if (httpPort == 0) {
-            Random random = new Random();
-            for (int i = 0; httpPort == 0  && i < 30; i++) {
-                int port = 8080 + random.nextInt(10000);
-                try {
-                    LOGGER.debug("Random port lookup - Trying with {}", port);
-                    bind(port, false);
-                    httpPort = port;
-                    LOGGER.info("Wisdom is going to serve HTTP requests on port " + httpPort);
-                } catch (Exception e) {
-                    LOGGER.debug("Cannot bind on port {} (port already used probably)", port, e);
-                }
-            }
-
-            // If the port is still 0, we were not able to bind on any port.
-            if (httpPort == 0) {
-                throw new IllegalStateException("Cannot find a free port for HTTP after 30 tries");
-            }
-        } else if (httpPort >= 0) {
-            bind(httpPort, false);
-            LOGGER.info("Wisdom is going to serve HTTP requests on port " + httpPort);
+    private void initializeEventLoopGroups() {
+        int processors = AvailableProcessors.get();
+        // Each listening socket is registered on a boss event loop, so by default we use one loop per acceptor.
+        int bossThreads = accessor.getConfiguration().getIntegerWithDefault(KEY_BOSS_THREADS, acceptors);
+        if (bossThreads <= 0) {
+            bossThreads = acceptors;
         }
+        int workerThreads = accessor.getConfiguration().getIntegerWithDefault(KEY_WORKER_THREADS, 2 * processors);
+        if (workerThreads <= 0) {
+            workerThreads = 2 * processors;
+        }
+        boolean daemon = accessor.getConfiguration().getBooleanWithDefault(KEY_DAEMON_THREADS, false);
+
+        bossGroup = transport.createEventLoopGroup(bossThreads,
+                new DefaultThreadFactory("wisdom-netty-boss", daemon));
+        workerGroup = transport.createEventLoopGroup(workerThreads,
+                new DefaultThreadFactory("wisdom-netty-worker", daemon));
+        // One arena per worker thread limits the contention on the arenas.
+        allocator = Allocators.fromConfiguration(accessor.getConfiguration(), workerThreads);
+        invoker = InvocationExecutor.fromConfiguration(accessor.getConfiguration(), daemon);
+        timeouts = RequestTimeouts.fromConfiguration(accessor.getConfiguration(), daemon);
+        limiter = AdmissionLimiter.fromConfiguration(accessor.getConfiguration());
+
+        int ioRatio = AvailableProcessors.ioRatio(accessor.getConfiguration().getIntegerWithDefault(
+                AvailableProcessors.KEY_IO_RATIO, AvailableProcessors.DEFAULT_IO_RATIO));
+        transport.setIoRatio(workerGroup, ioRatio);
+
+        LOGGER.info("Event loops: {} boss thread(s), {} worker thread(s) for {} usable processor(s), " +
+                "I/O ratio: {}%, daemon threads: {}", bossThreads, workerThreads, processors, ioRatio, daemon);
     }
 
     private void initializeInetAddress() {
@@ -156,12 +226,91 @@ public class WisdomServer {
         }
     }
 
-    private void bind(int port, boolean secure) throws KeyStoreException, InterruptedException {
-        ServerBootstrap http = new ServerBootstrap();
-        http.group(bossGroup, workerGroup)
-                .channel(NioServerSocketChannel.class)
-                .childHandler(new WisdomServerInitializer(accessor, secure));
-        group.add(http.bind(address, port).sync().channel());
+    private ServerBootstrap bootstrap(Listener listener) throws KeyStoreException {
+        ServerBootstrap bootstrap = new ServerBootstrap();
+        bootstrap.group(bossGroup, workerGroup)
+                .channel(listener.isDomainSocket() ? domainSocketChannelType(listener) : transport.serverChannelType())
+                .option(ChannelOption.ALLOCATOR, allocator)
+                .childOption(ChannelOption.ALLOCATOR, allocator)
+                .childHandler(new WisdomServerInitializer(accessor, listener.isSecure(), tracker, invoker,
+                        timeouts, limiter, bulkheads));
+        listener.options().apply(bootstrap, transport, !listener.isDomainSocket());
+        if (acceptors > 1 && !listener.isDomainSocket()) {
+            // Several sockets are bound on the same port, the kernel balances the incoming connections among them.
+            transport.enableReusePort(bootstrap);
+        }
+        return bootstrap;
+    }
+
+    /**
+     * Checks that the transport supports Unix domain sockets, and removes the socket file left by a previous run (the
+     * bind fails if the file exists).
+     *
+     * @param listener the domain socket listener
+     * @return the type of server channel to use
+     */
+    private Class<? extends ServerChannel> domainSocketChannelType(Listener listener) {
+        if (!transport.supportsDomainSockets()) {
+            throw new IllegalStateException("The " + listener.name() + " listener uses a Unix domain socket, it " +
+                    "requires the epoll transport (current transport: " + transport + ")");
+        }
+        Path socket = Paths.get(listener.path());
+        if (Files.exists(socket, LinkOption.NOFOLLOW_LINKS)) {
+            if (!isSocket(socket)) {
+                throw new IllegalStateException("Cannot bind the " + listener.name() + " listener on " + socket
+                        + ", the file exists and is not a socket");
+            }
+            try {
+                Files.delete(socket);
+            } catch (IOException e) {
+                throw new IllegalStateException("Cannot delete the stale socket file " + socket, e);
+            }
+        }
+        return EpollSupport.domainServerChannelType();
+    }
+
+    /**
+     * Checks whether the given file is a Unix domain socket. Only sockets are deleted, so a wrong path cannot remove
+     * a regular file.
+     *
+     * @param file the file
+     * @return {@literal true} if the file is a socket
+     */
+    private static boolean isSocket(Path file) {
+        try {
+            Object mode = Files.getAttribute(file, "unix:mode", LinkOption.NOFOLLOW_LINKS);
+            return mode instanceof Integer && ((Integer) mode & S_IFMT) == S_IFSOCK;
+        } catch (UnsupportedOperationException | IllegalArgumentException | IOException e) { //NOSONAR
+            // The unix attribute view is not available, sockets are neither regular files, directories nor links.
+            try {
+                return Files.readAttributes(file, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS).isOther();
+            } catch (IOException ignored) { //NOSONAR
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Waits for the binding of the first listening socket, and binds the additional acceptors on the same port.
+     * The bound port is read from the bound channel (useful when the OS picked it) and stored in the listener.
+     *
+     * @param listener  the listener
+     * @param bootstrap the bootstrap
+     * @param binding   the binding of the first socket
+     * @throws InterruptedException if the thread is interrupted while waiting for the binding
+     */
+    private void completeBinding(Listener listener, ServerBootstrap bootstrap, ChannelFuture binding)
+            throws InterruptedException {
+        Channel channel = binding.sync().channel();
+        group.add(channel);
+        if (listener.isDomainSocket()) {
+            return;
+        }
+        int boundPort = ((InetSocketAddress) channel.localAddress()).getPort();
+        for (int i = 1; i < acceptors; i++) {
+            group.add(bootstrap.bind(listener.address(), boundPort).sync().channel());
+        }
+        listener.boundPort(boundPort);
     }
 
     private void onError() {
@@ -173,29 +322,165 @@ public class WisdomServer {
      */
     public void stop() {
         try {
+            // Stop accepting connections.
             group.close().sync();
+            drain();
+            invoker.shutdown();
+            bulkheads.shutdown();
+            timeouts.stop();
             bossGroup.shutdownGracefully().sync();
             workerGroup.shutdownGracefully().sync();
+            deleteSocketFiles();
             LOGGER.info("Wisdom server has been stopped gracefully");
         } catch (InterruptedException e) {
             LOGGER.warn("Cannot stop the Wisdom server gracefully", e);
         }
     }
 
+    private void deleteSocketFiles() {
+        for (Listener listener : listeners) {
+            if (listener.isDomainSocket()) {
+                Path socket = Paths.get(listener.path());
+                try {
+                    if (isSocket(socket)) {
+                        Files.delete(socket);
+                    }
+                } catch (IOException e) {
+                    LOGGER.debug("Cannot delete the socket file {}", socket, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Drains the open connections. Responses written from now on close their connection. Then,
+     * it waits for the requests in progress (including async results) to be completed, i.e. their response to be
+     * written, up to the {@literal netty.drain.timeout} deadline (in milliseconds). Remaining connections are closed.
+     *
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    private void drain() throws InterruptedException {
+        tracker.startDraining();
+        int open = tracker.connections();
+        long timeout = accessor.getConfiguration().getIntegerWithDefault(KEY_DRAIN_TIMEOUT, 10000);
+        if (tracker.inFlight() > 0 && timeout > 0) {
+            LOGGER.info("Draining {} connection(s), waiting for {} request(s) in progress (at most {} ms)", open,
+                    tracker.inFlight(), timeout);
+            tracker.awaitIdle(timeout, TimeUnit.MILLISECONDS);
+        }
+        // Connections still having a request in progress are forced, idle ones are just closed.
+        int forced = tracker.busyConnections();
+        int remaining = tracker.connections();
+        tracker.group().close().sync();
+        forceClosedConnections = forced;
+        drainedConnections = Math.max(0, open - forced);
+        if (open > 0) {
+            LOGGER.info("{} connection(s) drained, {} connection(s) force-closed ({} still open at the end of the " +
+                    "drain)", drainedConnections, forceClosedConnections, remaining);
+        }
+    }
+
+    /**
+     * @return the statistics about the connections: number of open connections, requests in progress, whether the
+     * server is draining, and the result of the last drain.
+     */
+    public Map<String, Object> connectionStatistics() {
+        return ImmutableMap.<String, Object>of(
+                "open", tracker.connections(),
+                "inFlight", tracker.inFlight(),
+                "draining", tracker.isDraining(),
+                "drained", drainedConnections,
+                "forceClosed", forceClosedConnections);
+    }
+
+    /**
+     * @return the transport requested in the configuration, the transport actually used (they differ when the
+     * requested one is not available, or for {@literal io_uring}), and the number of acceptors per port.
+     */
+    public Map<String, Object> transportStatistics() {
+        if (transport == null) {
+            return ImmutableMap.of();
+        }
+        return ImmutableMap.<String, Object>of(
+                "requested", requestedTransport,
+                "used", transport.name().toLowerCase(Locale.ENGLISH),
+                "fallback", !transport.name().equalsIgnoreCase(requestedTransport),
+                "acceptors", acceptors);
+    }
+
+    /**
+     * @return the statistics of the executor running the route invocations.
+     */
+    public Map<String, Object> invocationStatistics() {
+        return invoker.statistics();
+    }
+
+    /**
+     * @return the number of requests which have timed out, per route.
+     */
+    public Map<String, Object> timeoutStatistics() {
+        return timeouts.statistics();
+    }
+
+    /**
+     * @return the statistics of the admission control (current limit, admitted and rejected requests), empty if the
+     * admission control is disabled.
+     */
+    public Map<String, Object> admissionStatistics() {
+        if (limiter == null) {
+            return ImmutableMap.of();
+        }
+        return limiter.statistics();
+    }
+
+    /**
+     * @return the statistics of each bulkhead.
+     */
+    public Map<String, Object> bulkheadStatistics() {
+        if (bulkheads == null) {
+            return ImmutableMap.of();
+        }
+        return bulkheads.statistics();
+    }
+
+    /**
+     * @return the statistics of the buffer allocator used by the server.
+     */
+    public Map<String, Object> allocatorStatistics() {
+        return Allocators.statistics(allocator);
+    }
+
+    /**
+     * Gets the future completed once all the listeners are bound. It fails if one of the listeners cannot be bound.
+     *
+     * @return the future
+     */
+    public Future<Void> ready() {
+        return ready;
+    }
+
     /**
      * @return the hostname.
      */
     public String hostname() {
-        if (address == null) {
+        // Use the address of the primary listener, HTTP first.
+        InetAddress primary = address;
+        for (Listener listener : listeners) {
+            if (!listener.isSecure() && !listener.isDomainSocket()) {
+                primary = listener.address();
+                break;
+            }
+        }
+        if (primary == null) {
             return "localhost";
         } else {
-            return address.getHostName();
+            return primary.getHostName();
         }
     }
 
     /**
      * @return the HTTP port on which the current HTTP server is bound. {@literal -1} means that the HTTP connection
-     * is not enabled.
+     * is not enabled. When several HTTP listeners are configured, the port of the first one is returned.
      */
     public int httpPort() {
         return httpPort;
@@ -203,7 +488,7 @@ public class WisdomServer {
 
     /**
      * @return the HTTP port on which the current HTTPS server is bound. {@literal -1} means that the HTTPS connection
-     * is not enabled.
+     * is not enabled. When several HTTPS listeners are configured, the port of the first one is returned.
      */
     public int httpsPort() {
         return httpsPort;
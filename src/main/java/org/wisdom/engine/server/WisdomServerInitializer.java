@@ -19,9 +19,9 @@
  */
 package org.wisdom.engine.server;
 
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelPipeline;
-import io.netty.channel.socket.SocketChannel;
 import io.netty.handler.codec.http.HttpRequestDecoder;
 import io.netty.handler.codec.http.HttpResponseEncoder;
 import io.netty.handler.ssl.SslHandler;
@@ -34,20 +34,34 @@ import javax.net.ssl.SSLEngine;
 import org.wisdom.engine.ssl.SSLServerContext;
 
 /**
- * Initializes the pipeline.
+ * Initializes the pipeline. The channel is either a TCP socket or a Unix domain socket.
  */
-public class WisdomServerInitializer extends ChannelInitializer<SocketChannel> {
+public class WisdomServerInitializer extends ChannelInitializer<Channel> {
 
     private final ServiceAccessor accessor;
     private final boolean secure;
+    private final ConnectionTracker tracker;
+    private final InvocationExecutor invoker;
+    private final RequestTimeouts timeouts;
+    private final AdmissionLimiter limiter;
+    private final Bulkheads bulkheads;
 
-    public WisdomServerInitializer(final ServiceAccessor accessor, final boolean secure) throws KeyStoreException {
+    public WisdomServerInitializer(final ServiceAccessor accessor, final boolean secure,
+                                   final ConnectionTracker tracker, final InvocationExecutor invoker,
+                                   final RequestTimeouts timeouts, final AdmissionLimiter limiter,
+                                   final Bulkheads bulkheads) throws KeyStoreException {
         this.accessor = accessor;
         this.secure = secure;
+        this.tracker = tracker;
+        this.invoker = invoker;
+        this.timeouts = timeouts;
+        this.limiter = limiter;
+        this.bulkheads = bulkheads;
     }
 
     @Override
-    public void initChannel(final SocketChannel ch) throws Exception {
+    public void initChannel(final Channel ch) throws Exception {
+        tracker.register(ch);
         // Create a default pipeline implementation.
         final ChannelPipeline pipeline = ch.pipeline();
         if (secure) {
@@ -65,8 +79,13 @@ public class WisdomServerInitializer extends ChannelInitializer<SocketChannel> {
         pipeline.addLast("encoder", new HttpResponseEncoder());
         pipeline.addLast("chunkedWriter", new ChunkedWriteHandler());
 
+        if (limiter != null) {
+            // Reject the requests exceeding the concurrency limit before they reach the wisdom handler.
+            pipeline.addLast("admission", new AdmissionControlHandler(limiter));
+        }
+
         // The wisdom handler.
-        pipeline.addLast("handler", new WisdomHandler(accessor));
+        pipeline.addLast("handler", new WisdomHandler(accessor, tracker, invoker, timeouts, bulkheads));
 
     }
     
@@ -0,0 +1,89 @@
+/*
+ * #%L
+ * Wisdom-Framework
+ * %%
+ * Copyright (C) 2013 - 2014 Wisdom Framework
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.wisdom.engine.wrapper;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.net.MediaType;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Parses the {@literal Accept} headers. Clients send a handful of distinct values, so the sorted media types are
+ * cached (in a bounded cache shared by all the requests) and the header is only parsed the first time it is seen.
+ */
+public final class AcceptHeaders {
+
+    /**
+     * The maximum number of distinct headers kept in the cache.
+     */
+    private static final int CACHE_SIZE = 256;
+
+    private static final Cache<String, List<MediaType>> CACHE = CacheBuilder.newBuilder()
+            .maximumSize(CACHE_SIZE)
+            .build();
+
+    /**
+     * Sorts the media types by quality, the first type is the preferred one.
+     */
+    private static final Comparator<MediaType> BY_QUALITY = new Comparator<MediaType>() {
+        @Override
+        public int compare(MediaType o1, MediaType o2) {
+            return Double.compare(quality(o2), quality(o1));
+        }
+    };
+
+    private AcceptHeaders() {
+        // Avoid direct instantiation.
+    }
+
+    /**
+     * Gets the media types of the given {@literal Accept} header, sorted by quality. Media types having the same
+     * quality than a previous one are ignored.
+     *
+     * @param header the header value, must not be {@literal null}
+     * @return the immutable list of media types
+     * @throws IllegalArgumentException if a media type cannot be parsed
+     */
+    public static List<MediaType> parse(String header) {
+        List<MediaType> types = CACHE.getIfPresent(header);
+        if (types == null) {
+            TreeSet<MediaType> set = new TreeSet<>(BY_QUALITY);
+            // Split and sort.
+            for (String segment : header.split(",")) {
+                set.add(MediaType.parse(segment.trim()));
+            }
+            types = ImmutableList.copyOf(set);
+            CACHE.put(header, types);
+        }
+        return types;
+    }
+
+    private static double quality(MediaType type) {
+        List<String> q = type.parameters().get("q");
+        if (q != null && !q.isEmpty()) {
+            return Double.parseDouble(q.get(0));
+        }
+        return 1.0;
+    }
+}
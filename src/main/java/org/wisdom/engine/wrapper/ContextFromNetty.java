@@ -24,7 +24,6 @@ import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
-import com.google.common.primitives.Bytes;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.http.HttpContent;
 import io.netty.handler.codec.http.HttpHeaders;
@@ -46,17 +45,20 @@ import org.wisdom.api.http.Context;
 import org.wisdom.api.http.FileItem;
 import org.wisdom.api.http.MimeTypes;
 import org.wisdom.api.http.Request;
+import org.wisdom.api.http.Result;
 import org.wisdom.api.router.Route;
 import org.wisdom.engine.server.ServiceAccessor;
 import org.wisdom.engine.wrapper.cookies.CookieHelper;
+import org.wisdom.engine.wrapper.cookies.CookieSettings;
 import org.wisdom.engine.wrapper.cookies.FlashCookieImpl;
 import org.wisdom.engine.wrapper.cookies.SessionCookieImpl;
 
 import java.io.BufferedReader;
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.net.URI;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
@@ -72,10 +74,17 @@ public class ContextFromNetty implements Context {
     private static AtomicLong ids = new AtomicLong();
     private final long id;
     private final ServiceAccessor services;
-    private final FlashCookie flashCookie;
-    private final SessionCookie sessionCookie;
+    /**
+     * The flash and session cookies, created and decoded on first use.
+     */
+    private FlashCookie flashCookie;
+    private SessionCookie sessionCookie;
     private final QueryStringDecoder queryStringDecoder;
     private /*not final*/ Route route;
+    /**
+     * The encoded path parameters of the route, extracted on first use or when the route is set.
+     */
+    private Map<String, String> pathParameters;
     /**
      * the request object, created lazily.
      */
@@ -90,15 +99,37 @@ public class ContextFromNetty implements Context {
     private List<FileItemFromNetty> files = Lists.newArrayList();
 
     /**
-     * The raw body.
+     * The raw body, {@literal null} if the request has no body.
+     */
+    private RawBody raw;
+
+    /**
+     * The channel context, used to allocate the buffers storing the raw body.
+     */
+    private final ChannelHandlerContext channelContext;
+
+    /**
+     * Whether the truncation of the raw body has already been reported.
      */
-    private byte[] raw;
+    private boolean truncated;
 
     /**
      * The logger.
      */
     private static final Logger LOGGER = LoggerFactory.getLogger(ContextFromNetty.class);
 
+    /**
+     * The size (in bytes) above which the raw body is written in a temporary file. The default value is above the
+     * default {@literal request.body.max.size} (100 KB) and {@literal netty.request.form.max.length} (1 MB), so the
+     * bodies are only spilled when these limits are raised above the threshold.
+     */
+    private static final String KEY_SPILL_THRESHOLD = "netty.request.body.spill.threshold";
+    private static final int DEFAULT_SPILL_THRESHOLD = 1024 * 1024;
+
+    private static final String MULTIPART_FORM_DATA = "multipart/form-data";
+    private static final String FORM_URL_ENCODED = "application/x-www-form-urlencoded";
+    private static final String CHARSET_PARAMETER = "charset=";
+
 
     /**
      * Creates a new context.
@@ -110,13 +141,9 @@ public class ContextFromNetty implements Context {
     public ContextFromNetty(ServiceAccessor accessor, ChannelHandlerContext ctxt, HttpRequest req) {
         id = ids.getAndIncrement();
         services = accessor;
+        channelContext = ctxt;
         queryStringDecoder = new QueryStringDecoder(req.getUri());
         request = new RequestFromNetty(this, ctxt, req);
-
-        flashCookie = new FlashCookieImpl(accessor.getConfiguration());
-        sessionCookie = new SessionCookieImpl(accessor.getCrypto(), accessor.getConfiguration());
-        sessionCookie.init(this);
-        flashCookie.init(this);
     }
 
     /**
@@ -139,7 +166,57 @@ public class ContextFromNetty implements Context {
     }
 
     /**
-     * Decodes the content of the request. Notice that the content can be split in several chunk.
+     * Checks whether the body of the given request is a multipart form ({@literal multipart/form-data}).
+     *
+     * @param req the request
+     * @return {@literal true} if the body is a multipart form
+     */
+    public static boolean isMultipart(HttpRequest req) {
+        return hasContentType(req, MULTIPART_FORM_DATA);
+    }
+
+    /**
+     * Checks whether the body of the given request is an url-encoded form
+     * ({@literal application/x-www-form-urlencoded}).
+     *
+     * @param req the request
+     * @return {@literal true} if the body is an url-encoded form
+     */
+    public static boolean isUrlEncodedForm(HttpRequest req) {
+        return hasContentType(req, FORM_URL_ENCODED);
+    }
+
+    private static boolean hasContentType(HttpRequest req, String expected) {
+        String contentType = req.headers().get(HttpHeaders.Names.CONTENT_TYPE);
+        return contentType != null
+                && getContentTypeFromContentTypeAndCharacterSetting(contentType).trim().equalsIgnoreCase(expected);
+    }
+
+    /**
+     * Gets the charset declared in a {@literal Content-Type} header.
+     *
+     * @param contentType the value of the header, may be {@literal null}
+     * @return the declared charset, UTF-8 if the header does not declare a supported charset
+     */
+    public static Charset charset(String contentType) {
+        if (contentType != null) {
+            for (String parameter : contentType.split(";")) {
+                String trimmed = parameter.trim();
+                if (trimmed.regionMatches(true, 0, CHARSET_PARAMETER, 0, CHARSET_PARAMETER.length())) {
+                    String name = trimmed.substring(CHARSET_PARAMETER.length()).replace("\"", "").trim();
+                    try {
+                        return Charset.forName(name);
+                    } catch (IllegalArgumentException e) { //NOSONAR
+                        LOGGER.debug("Unsupported charset {}, using UTF-8", name);
+                    }
+                }
+            }
+        }
+        return Charsets.UTF_8;
+    }
+
+    /**
+     * Decodes the content of a multipart request. Notice that the content can be split in several chunk.
      *
      * @param req     the request
      * @param content the content
@@ -155,27 +232,7 @@ public class ContextFromNetty implements Context {
             readHttpDataChunkByChunk(decoder);
         } else {
             // Else, read content.
-            if (content.content().isReadable()) {
-                // We may have the content in different HTTP message, check if we already have a content.
-                // Issue #257.
-                // To avoid we run out of memory we cut the read body to 100Kb. This can be configured using the
-                // "request.body.max.size" property.
-                boolean exceeded = raw != null
-                        && raw.length >=
-                        services.getConfiguration().getIntegerWithDefault("request.body.max.size", 100 * 1024);
-                if (!exceeded) {
-                    if (this.raw == null) {
-                        this.raw = new byte[content.content().readableBytes()];
-                        int readerIndex = content.content().readerIndex();
-                        content.content().getBytes(readerIndex, this.raw);
-                    } else {
-                        byte[] bytes = new byte[content.content().readableBytes()];
-                        int readerIndex = content.content().readerIndex();
-                        content.content().getBytes(readerIndex, bytes);
-                        this.raw = Bytes.concat(this.raw, bytes);
-                    }
-                }
-            }
+            appendContent(req, content, true);
             decoder.offer(content);
             try {
                 for (InterfaceHttpData data : decoder.getBodyHttpDatas()) {
@@ -187,6 +244,57 @@ public class ContextFromNetty implements Context {
         }
     }
 
+    /**
+     * Appends a chunk of the content to the raw body, without decoding it. This is used for all the bodies that are
+     * not multipart forms.
+     *
+     * @param req     the request
+     * @param content the content
+     * @param capped  whether the raw body is truncated to {@literal request.body.max.size}. Url-encoded forms are
+     *                not capped, as the whole body is needed to decode the form.
+     */
+    public void appendContent(HttpRequest req, HttpContent content, boolean capped) {
+        if (!content.content().isReadable()) {
+            return;
+        }
+        // We may have the content in different HTTP message, check if we already have a content.
+        // Issue #257.
+        // To avoid we run out of memory we cut the read body to 100Kb. This can be configured using the
+        // "request.body.max.size" property. The chunks are not copied, and large bodies are written on disk
+        // (see "netty.request.body.spill.threshold").
+        boolean exceeded = capped && raw != null
+                && raw.size() >= services.getConfiguration().getIntegerWithDefault("request.body.max.size", 100 * 1024);
+        if (!exceeded) {
+            if (this.raw == null) {
+                this.raw = new RawBody(channelContext.alloc(), services.getConfiguration()
+                        .getIntegerWithDefault(KEY_SPILL_THRESHOLD, DEFAULT_SPILL_THRESHOLD));
+            }
+            this.raw.append(content.content());
+        } else if (!truncated) {
+            truncated = true;
+            LOGGER.warn("The body of the request {} {} exceeds request.body.max.size, it is truncated to " +
+                    "{} bytes", req.getMethod(), req.getUri(), raw.size());
+        }
+    }
+
+    /**
+     * Decodes the url-encoded form contained in the raw body. This method must be called once the whole body has
+     * been received.
+     *
+     * @param req the request
+     */
+    public void decodeUrlEncodedForm(HttpRequest req) {
+        if (raw == null) {
+            return;
+        }
+        try {
+            Charset charset = charset(req.headers().get(HttpHeaders.Names.CONTENT_TYPE));
+            UrlEncodedFormParser.parse(raw.content(), charset, form);
+        } catch (IllegalStateException e) {
+            LOGGER.warn("Error while reading attributes (form data)", e);
+        }
+    }
+
     /**
      * Reads request by chunk and getting values from chunk to chunk.
      */
@@ -292,6 +400,10 @@ public class ContextFromNetty implements Context {
      */
     @Override
     public FlashCookie flash() {
+        if (flashCookie == null) {
+            flashCookie = new FlashCookieImpl(services.getCookieSettings());
+            flashCookie.init(this);
+        }
         return flashCookie;
     }
 
@@ -306,9 +418,33 @@ public class ContextFromNetty implements Context {
      */
     @Override
     public SessionCookie session() {
+        if (sessionCookie == null) {
+            sessionCookie = new SessionCookieImpl(services.getCrypto(), services.getCookieSettings(),
+                    services.getSessionCache());
+            sessionCookie.init(this);
+        }
         return sessionCookie;
     }
 
+    /**
+     * Saves the flash and session cookies in the given result. The cookies that have not been used during the
+     * request are only decoded and saved when the response must update them: the incoming flash cookie is cleared,
+     * and the incoming session cookie is renewed if {@link SessionCookie#SESSION_SEND_ONLY_IF_CHANGED} is
+     * disabled. Otherwise, nothing is sent and the signature of the session cookie is never verified.
+     *
+     * @param result the result
+     */
+    public void saveFlashAndSession(Result result) {
+        CookieSettings settings = services.getCookieSettings();
+        if (flashCookie != null || hasCookie(settings.flashCookieName())) {
+            flash().save(this, result);
+        }
+        if (sessionCookie != null
+                || !settings.sessionSendOnlyIfChanged() && hasCookie(settings.sessionCookieName())) {
+            session().save(this, result);
+        }
+    }
+
     /**
      * Get cookie from context.
      *
@@ -521,8 +657,7 @@ public class ContextFromNetty implements Context {
      */
     @Override
     public String parameterFromPath(String name) {
-        String encodedParameter = route.getPathParametersEncoded(
-                path()).get(name);
+        String encodedParameter = pathParameters().get(name);
 
         if (encodedParameter == null) {
             return null;
@@ -544,7 +679,7 @@ public class ContextFromNetty implements Context {
      */
     @Override
     public String parameterFromPathEncoded(String name) {
-        return route.getPathParametersEncoded(path()).get(name);
+        return pathParameters().get(name);
     }
 
     /**
@@ -663,7 +798,10 @@ public class ContextFromNetty implements Context {
      * @return the body as String
      */
     public String body() {
-        return new String(raw, Charsets.UTF_8);
+        if (raw == null) {
+            return null;
+        }
+        return raw.asString(charset(request.contentType()));
     }
 
     /**
@@ -673,7 +811,10 @@ public class ContextFromNetty implements Context {
      */
     @Override
     public byte[] raw() {
-        return raw;
+        if (raw == null) {
+            return null;
+        }
+        return raw.bytes();
     }
 
     /**
@@ -684,11 +825,26 @@ public class ContextFromNetty implements Context {
     @Override
     public BufferedReader reader() throws IOException {
         if (raw != null) {
-            return IOUtils.toBufferedReader(new InputStreamReader(new ByteArrayInputStream(raw)));
+            return IOUtils.toBufferedReader(new InputStreamReader(raw.stream(), charset(request.contentType())));
         }
         return null;
     }
 
+    /**
+     * Opens a stream on the request body. When the body is kept in memory, the stream reads the received buffers
+     * directly, so body parsers can consume it without copying the body in a byte array. If the request has no
+     * body, {@code null} is returned.
+     *
+     * @return a new stream on the body, {@code null} if the request has no body
+     * @throws IOException if the body cannot be read
+     */
+    public InputStream stream() throws IOException {
+        if (raw == null) {
+            return null;
+        }
+        return raw.stream();
+    }
+
     /**
      * Get the route for this context.
      *
@@ -711,6 +867,28 @@ public class ContextFromNetty implements Context {
         this.route = route;
     }
 
+    /**
+     * Sets the route associated with the current context, and its path parameters, already extracted from the
+     * path.
+     *
+     * @param route          the route
+     * @param pathParameters the encoded path parameters
+     */
+    public void route(Route route, Map<String, String> pathParameters) {
+        route(route);
+        this.pathParameters = pathParameters;
+    }
+
+    /**
+     * @return the encoded path parameters, extracted once.
+     */
+    private Map<String, String> pathParameters() {
+        if (pathParameters == null) {
+            pathParameters = route.getPathParametersEncoded(path());
+        }
+        return pathParameters;
+    }
+
     /**
      * Check if request is of type multipart. Important when you want to process
      * uploads for instance.
@@ -752,12 +930,16 @@ public class ContextFromNetty implements Context {
     }
 
     /**
-     * Releases uploaded files.
+     * Releases uploaded files and the raw body.
      */
     public void cleanup() {
         for (FileItemFromNetty file : files) {
             file.upload().release();
         }
+        if (raw != null) {
+            raw.release();
+            raw = null;
+        }
         request().data().clear();
     }
 }
@@ -0,0 +1,101 @@
+/*
+ * #%L
+ * Wisdom-Framework
+ * %%
+ * Copyright (C) 2013 - 2014 Wisdom Framework
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.wisdom.engine.wrapper;
+
+import com.google.common.base.Function;
+import com.google.common.collect.Iterators;
+import io.netty.handler.codec.http.HttpHeaders;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A read-only view of the headers of a Netty request. The headers are not copied: lookups are delegated to the
+ * Netty headers, and are therefore case-insensitive. Only the values of the requested headers are collected in a
+ * list.
+ */
+class HeadersView extends AbstractMap<String, List<String>> {
+
+    private final HttpHeaders headers;
+
+    private final Set<Entry<String, List<String>>> entries = new AbstractSet<Entry<String, List<String>>>() {
+        @Override
+        public Iterator<Entry<String, List<String>>> iterator() {
+            return Iterators.transform(Iterators.unmodifiableIterator(headers.names().iterator()),
+                    new Function<String, Entry<String, List<String>>>() {
+                        @Override
+                        public Entry<String, List<String>> apply(String name) {
+                            return new SimpleImmutableEntry<>(name, get(name));
+                        }
+                    });
+        }
+
+        @Override
+        public int size() {
+            return headers.names().size();
+        }
+    };
+
+    /**
+     * Creates the view.
+     *
+     * @param headers the Netty headers
+     */
+    HeadersView(HttpHeaders headers) {
+        this.headers = headers;
+    }
+
+    @Override
+    public List<String> get(Object key) {
+        if (!(key instanceof String)) {
+            return null;
+        }
+        List<String> values = headers.getAll((String) key);
+        if (values.isEmpty()) {
+            return null;
+        }
+        return Collections.unmodifiableList(values);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return key instanceof String && headers.contains((String) key);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return headers.isEmpty();
+    }
+
+    @Override
+    public int size() {
+        return headers.names().size();
+    }
+
+    @Override
+    public Set<Entry<String, List<String>>> entrySet() {
+        return entries;
+    }
+}
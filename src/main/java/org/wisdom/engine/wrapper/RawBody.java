@@ -0,0 +1,245 @@
+/*
+ * #%L
+ * Wisdom-Framework
+ * %%
+ * Copyright (C) 2013 - 2014 Wisdom Framework
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.wisdom.engine.wrapper;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.Unpooled;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Stores the raw body of a request. The chunks are accumulated without copy in a composite buffer holding retained
+ * slices of the received buffers. When the body grows above a threshold, it is spilled to a temporary file, and the
+ * following chunks are appended to the file.
+ * <p>
+ * The body is written by the event loop and read once the request is complete. It must be released (see
+ * {@link #release()}) once the request is processed.
+ */
+public class RawBody {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RawBody.class);
+
+    private final ByteBufAllocator allocator;
+    private final long spillThreshold;
+
+    private CompositeByteBuf buffer;
+    private File file;
+    private OutputStream output;
+    private long size;
+    private byte[] bytes;
+
+    /**
+     * Creates a new empty body.
+     *
+     * @param allocator      the allocator used to create the composite buffer
+     * @param spillThreshold the size (in bytes) above which the body is written in a temporary file
+     */
+    public RawBody(ByteBufAllocator allocator, long spillThreshold) {
+        this.allocator = allocator;
+        this.spillThreshold = spillThreshold;
+    }
+
+    /**
+     * Appends a chunk. The readable bytes of the chunk are retained (not copied) until the body is released or
+     * spilled to disk. The reader index of the chunk is not modified.
+     *
+     * @param chunk the chunk
+     */
+    public void append(ByteBuf chunk) {
+        int length = chunk.readableBytes();
+        if (length == 0) {
+            return;
+        }
+        bytes = null;
+        size += length;
+        if (output != null) {
+            write(chunk);
+            return;
+        }
+        if (buffer == null) {
+            buffer = allocator.compositeBuffer(Integer.MAX_VALUE);
+        }
+        buffer.addComponent(chunk.slice().retain());
+        // addComponent does not move the writer index.
+        buffer.writerIndex(buffer.writerIndex() + length);
+        if (size > spillThreshold) {
+            spill();
+        }
+    }
+
+    private void spill() {
+        try {
+            file = File.createTempFile("wisdom-body-", ".tmp");
+            output = new FileOutputStream(file);
+            LOGGER.debug("Spilling a request body of {} bytes to {}", size, file.getAbsolutePath());
+            write(buffer);
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot spill the request body to disk", e);
+        } finally {
+            buffer.release();
+            buffer = null;
+        }
+    }
+
+    private void write(ByteBuf chunk) {
+        try {
+            chunk.getBytes(chunk.readerIndex(), output, chunk.readableBytes());
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot write the request body to " + file.getAbsolutePath(), e);
+        }
+    }
+
+    /**
+     * @return the size of the body in bytes.
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * @return whether the body has been written in a temporary file.
+     */
+    public boolean isSpilled() {
+        return file != null;
+    }
+
+    /**
+     * @return the temporary file holding the body, {@literal null} if the body is kept in memory.
+     */
+    File file() {
+        return file;
+    }
+
+    /**
+     * Gets the body as a byte array. The array is computed once, and it is shared by the subsequent calls.
+     *
+     * @return the content of the body
+     * @throws IllegalStateException if the body cannot be read from the temporary file, or is too large to fit in
+     *                               an array
+     */
+    public byte[] bytes() {
+        if (bytes != null) {
+            return bytes;
+        }
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalStateException("The request body is too large to be read as an array (" + size
+                    + " bytes)");
+        }
+        if (file != null) {
+            try {
+                IOUtils.closeQuietly(output);
+                output = null;
+                bytes = FileUtils.readFileToByteArray(file);
+            } catch (IOException e) {
+                throw new IllegalStateException("Cannot read the request body from " + file.getAbsolutePath(), e);
+            }
+        } else if (buffer != null) {
+            bytes = new byte[(int) size];
+            buffer.getBytes(buffer.readerIndex(), bytes);
+        } else {
+            bytes = new byte[0];
+        }
+        return bytes;
+    }
+
+    /**
+     * Gets the body as a buffer. When the body is kept in memory, the buffer shares the received buffers (it is not
+     * retained, so it must not be used once the body is released). Otherwise, the body is read from the temporary
+     * file.
+     *
+     * @return the content of the body
+     * @throws IllegalStateException if the body cannot be read from the temporary file
+     */
+    public ByteBuf content() {
+        if (bytes == null && file == null) {
+            return buffer == null ? Unpooled.EMPTY_BUFFER : buffer.duplicate();
+        }
+        return Unpooled.wrappedBuffer(bytes());
+    }
+
+    /**
+     * Decodes the body as a String. When the body is kept in memory, the characters are decoded directly from the
+     * buffers, without building the byte array.
+     *
+     * @param charset the charset
+     * @return the content of the body
+     * @throws IllegalStateException if the body cannot be read from the temporary file
+     */
+    public String asString(Charset charset) {
+        if (bytes == null && file == null) {
+            if (buffer == null) {
+                return "";
+            }
+            return buffer.toString(buffer.readerIndex(), buffer.readableBytes(), charset);
+        }
+        return new String(bytes(), charset);
+    }
+
+    /**
+     * Opens a stream on the body. When the body is kept in memory, the stream reads the buffers directly.
+     *
+     * @return a new stream
+     * @throws IOException if the temporary file cannot be opened
+     */
+    public InputStream stream() throws IOException {
+        if (file != null) {
+            IOUtils.closeQuietly(output);
+            output = null;
+            return new FileInputStream(file);
+        } else if (buffer != null) {
+            return new ByteBufInputStream(buffer.duplicate());
+        } else {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+    }
+
+    /**
+     * Releases the buffers and deletes the temporary file.
+     */
+    public void release() {
+        if (buffer != null) {
+            buffer.release();
+            buffer = null;
+        }
+        if (file != null) {
+            IOUtils.closeQuietly(output);
+            output = null;
+            if (!file.delete()) {
+                LOGGER.debug("Cannot delete the temporary file {}", file.getAbsolutePath());
+            }
+            file = null;
+        }
+        bytes = null;
+    }
+}
@@ -22,7 +22,6 @@ package org.wisdom.engine.wrapper;
 import com.google.common.collect.ImmutableList;
 import com.google.common.net.MediaType;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.handler.codec.http.HttpHeaders;
 import io.netty.handler.codec.http.HttpRequest;
 import org.wisdom.api.cookies.Cookie;
 import org.wisdom.api.cookies.Cookies;
@@ -42,6 +41,9 @@ import java.util.*;
  */
 public class RequestFromNetty extends Request {
 
+    private static final String LOOPBACK_ADDRESS = "127.0.0.1";
+    private static final String LOCALHOST = "localhost";
+
     private final HttpRequest request;
     private final ChannelHandlerContext channel;
     private final Cookies cookies;
@@ -49,6 +51,17 @@ public class RequestFromNetty extends Request {
 
     private Map<String, List<String>> headers;
 
+    /**
+     * The raw path, computed on first use.
+     */
+    private String path;
+
+    /**
+     * The last parsed {@literal Accept} header and its media types.
+     */
+    private String parsedAccept;
+    private List<MediaType> mediaTypes;
+
     private final Map<String, Object> data;
 
     public RequestFromNetty(Context context, ChannelHandlerContext ctx, HttpRequest request) {
@@ -154,24 +167,33 @@ public class RequestFromNetty extends Request {
      * If the <code>X-Forwarded-For</code> header is present, then this method will return the value in that header
      * if either the local address is 127.0.0.1, or if <code>trustxforwarded</code> is configured to be true in the
      * application configuration file.
+     * <p/>
+     * Connections received on a Unix domain socket have no IP address, the loopback address is returned, as the
+     * client is on the same host.
      */
     @Override
     public String remoteAddress() {
-        if (headers().containsKey(HeaderNames.X_FORWARD_FOR)) {
-            return getHeader(HeaderNames.X_FORWARD_FOR);
-        } else {
+        String forwarded = request.headers().get(HeaderNames.X_FORWARD_FOR);
+        if (forwarded != null) {
+            return forwarded;
+        } else if (channel.channel().remoteAddress() instanceof InetSocketAddress) {
             InetSocketAddress remote = (InetSocketAddress) channel.channel().remoteAddress();
             return remote.getAddress().getHostAddress();
+        } else {
+            return LOOPBACK_ADDRESS;
         }
     }
 
     /**
-     * The request host.
+     * The request host. For connections received on a Unix domain socket, {@literal localhost} is returned.
      */
     @Override
     public String host() {
-        InetSocketAddress remote = (InetSocketAddress) channel.channel().remoteAddress();
-        return remote.getHostName();
+        if (channel.channel().remoteAddress() instanceof InetSocketAddress) {
+            InetSocketAddress remote = (InetSocketAddress) channel.channel().remoteAddress();
+            return remote.getHostName();
+        }
+        return LOCALHOST;
     }
 
     /**
@@ -179,12 +201,15 @@ public class RequestFromNetty extends Request {
      */
     @Override
     public String path() {
-        try {
-            return new URI(request.getUri()).getRawPath();
-        } catch (URISyntaxException e) { //NOSONAR
-            // Should never be the case.
-            return uri();
+        if (path == null) {
+            try {
+                path = new URI(request.getUri()).getRawPath();
+            } catch (URISyntaxException e) { //NOSONAR
+                // Should never be the case.
+                path = uri();
+            }
         }
+        return path;
     }
 
     /**
@@ -229,40 +254,16 @@ public class RequestFromNetty extends Request {
      */
     @Override
     public Collection<MediaType> mediaTypes() {
-        String contentType = request.headers().get(HeaderNames.ACCEPT);
-
-        if (contentType == null) {
+        String accept = request.headers().get(HeaderNames.ACCEPT);
+        if (accept == null) {
             // Any text by default.
             return ImmutableList.of(MediaType.ANY_TEXT_TYPE);
         }
-
-        TreeSet<MediaType> set = new TreeSet<>(new Comparator<MediaType>() {
-            @Override
-            public int compare(MediaType o1, MediaType o2) {
-                double q1 = 1.0, q2 = 1.0;
-                List<String> ql1 = o1.parameters().get("q");
-                List<String> ql2 = o2.parameters().get("q");
-
-                if (ql1 != null && !ql1.isEmpty()) {
-                    q1 = Double.parseDouble(ql1.get(0));
-                }
-
-                if (ql2 != null && !ql2.isEmpty()) {
-                    q2 = Double.parseDouble(ql2.get(0));
-                }
-
-                return new Double(q2).compareTo(q1);
-            }
-        });
-
-        // Split and sort.
-        String[] segments = contentType.split(",");
-        for (String segment : segments) {
-            MediaType type = MediaType.parse(segment.trim());
-            set.add(type);
+        if (!accept.equals(parsedAccept)) {
+            mediaTypes = AcceptHeaders.parse(accept);
+            parsedAccept = accept;
         }
-
-        return set;
+        return mediaTypes;
     }
 
     /**
@@ -303,20 +304,15 @@ public class RequestFromNetty extends Request {
     }
 
     /**
-     * Retrieves all headers.
+     * Retrieves all headers. The returned map is a read-only view of the Netty headers: the headers are not copied,
+     * and the lookups are case-insensitive.
      *
      * @return headers
      */
     @Override
     public Map<String, List<String>> headers() {
-        if (headers != null) {
-            return headers;
-        }
-        headers = new HashMap<>();
-        final HttpHeaders requestHeaders = request.headers();
-        Set<String> names = requestHeaders.names();
-        for (String name : names) {
-            headers.put(name, requestHeaders.getAll(name));
+        if (headers == null) {
+            headers = new HeadersView(request.headers());
         }
         return headers;
     }
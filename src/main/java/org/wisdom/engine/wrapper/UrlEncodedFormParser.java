@@ -0,0 +1,164 @@
+/*
+ * #%L
+ * Wisdom-Framework
+ * %%
+ * Copyright (C) 2013 - 2014 Wisdom Framework
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.wisdom.engine.wrapper;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufProcessor;
+import io.netty.buffer.Unpooled;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Parses {@literal application/x-www-form-urlencoded} bodies. The parser works directly on the buffers of the
+ * body: fields that do not need to be decoded are converted to strings without intermediate copies, and the others
+ * are decoded in a single scratch array, allocated when the first escaped field is found. Invalid escape sequences
+ * are kept as they are.
+ */
+public final class UrlEncodedFormParser {
+
+    /**
+     * Stops on the first character requiring decoding.
+     */
+    private static final ByteBufProcessor FIND_ESCAPE = new ByteBufProcessor() {
+        @Override
+        public boolean process(byte value) {
+            return value != '%' && value != '+';
+        }
+    };
+
+    private final ByteBuf body;
+    private final Charset charset;
+
+    /**
+     * Reused to decode the escaped fields, {@literal null} until an escaped field is found.
+     */
+    private byte[] scratch;
+
+    private UrlEncodedFormParser(ByteBuf body, Charset charset) {
+        this.body = body;
+        this.charset = charset;
+    }
+
+    /**
+     * Parses the given body and adds the fields to the given form.
+     *
+     * @param body    the body
+     * @param charset the charset used to decode the fields
+     * @param form    the form receiving the fields (multiple values are kept in order)
+     */
+    public static void parse(byte[] body, Charset charset, Map<String, List<String>> form) {
+        parse(Unpooled.wrappedBuffer(body), charset, form);
+    }
+
+    /**
+     * Parses the readable bytes of the given buffer and adds the fields to the given form. The indexes of the buffer
+     * are not modified.
+     *
+     * @param body    the body
+     * @param charset the charset used to decode the fields
+     * @param form    the form receiving the fields (multiple values are kept in order)
+     */
+    public static void parse(ByteBuf body, Charset charset, Map<String, List<String>> form) {
+        new UrlEncodedFormParser(body, charset).parse(form);
+    }
+
+    private void parse(Map<String, List<String>> form) {
+        int limit = body.writerIndex();
+        int start = body.readerIndex();
+        while (start < limit) {
+            int end = body.indexOf(start, limit, (byte) '&');
+            if (end == -1) {
+                end = limit;
+            }
+            if (end > start) {
+                String name;
+                String value;
+                int separator = body.indexOf(start, end, (byte) '=');
+                if (separator == -1) {
+                    name = decode(start, end);
+                    value = "";
+                } else {
+                    name = decode(start, separator);
+                    value = decode(separator + 1, end);
+                }
+                if (!name.isEmpty()) {
+                    List<String> values = form.get(name);
+                    if (values == null) {
+                        values = new ArrayList<>(1);
+                        form.put(name, values);
+                    }
+                    values.add(value);
+                }
+            }
+            start = end + 1;
+        }
+    }
+
+    private String decode(int from, int to) {
+        if (from == to) {
+            return "";
+        }
+        int escape = body.forEachByte(from, to - from, FIND_ESCAPE);
+        if (escape == -1) {
+            return body.toString(from, to - from, charset);
+        }
+        // The decoded field is never longer than the encoded one.
+        if (scratch == null || scratch.length < to - from) {
+            scratch = new byte[to - from];
+        }
+        int size = escape - from;
+        body.getBytes(from, scratch, 0, size);
+        int i = escape;
+        while (i < to) {
+            byte b = body.getByte(i);
+            if (b == '+') {
+                scratch[size++] = ' ';
+                i++;
+                continue;
+            }
+            if (b == '%' && i + 2 < to) {
+                int high = hex(body.getByte(i + 1));
+                int low = hex(body.getByte(i + 2));
+                if (high >= 0 && low >= 0) {
+                    scratch[size++] = (byte) ((high << 4) + low);
+                    i += 3;
+                    continue;
+                }
+            }
+            scratch[size++] = b;
+            i++;
+        }
+        return new String(scratch, 0, size, charset);
+    }
+
+    private static int hex(byte b) {
+        if (b >= '0' && b <= '9') {
+            return b - '0';
+        } else if (b >= 'a' && b <= 'f') {
+            return b - 'a' + 10;
+        } else if (b >= 'A' && b <= 'F') {
+            return b - 'A' + 10;
+        }
+        return -1;
+    }
+}
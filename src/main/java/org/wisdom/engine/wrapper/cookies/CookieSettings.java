@@ -0,0 +1,132 @@
+/*
+ * #%L
+ * Wisdom-Framework
+ * %%
+ * Copyright (C) 2013 - 2014 Wisdom Framework
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.wisdom.engine.wrapper.cookies;
+
+import org.wisdom.api.configuration.ApplicationConfiguration;
+import org.wisdom.api.cookies.Cookie;
+import org.wisdom.api.cookies.SessionCookie;
+
+/**
+ * The configuration of the session and flash cookies. It is read once and shared by all the requests, instead of
+ * being read from the application configuration for every request.
+ */
+public class CookieSettings {
+
+    /**
+     * The maximum number of verified session cookies kept in the cache (1024 by default, 0 disables the cache).
+     */
+    public static final String KEY_SESSION_CACHE_SIZE = "netty.session.cache.size";
+
+    /**
+     * The granularity (in seconds) of the session timestamp refresh. An unmodified session is only renewed when its
+     * timestamp is older than the granularity (0 by default: renewed on every request).
+     */
+    public static final String KEY_SESSION_TIMESTAMP_GRANULARITY = "netty.session.timestamp.granularity";
+
+    private final String applicationCookiePrefix;
+    private final int sessionExpireTimeInMs;
+    private final boolean sessionSendOnlyIfChanged;
+    private final boolean sessionTransferredOverHttpsOnly;
+    private final boolean sessionHttpOnly;
+    private final int sessionCacheSize;
+    private final long sessionTimestampGranularityInMs;
+
+    /**
+     * Reads the settings from the application configuration.
+     *
+     * @param configuration the configuration
+     */
+    public CookieSettings(ApplicationConfiguration configuration) {
+        applicationCookiePrefix = configuration.getWithDefault(Cookie.APPLICATION_COOKIE_PREFIX, "wisdom");
+        sessionExpireTimeInMs =
+                configuration.getIntegerWithDefault(SessionCookie.SESSION_EXPIRE_TIME_SECOND, 3600) * 1000;
+        sessionSendOnlyIfChanged = configuration.getBooleanWithDefault(
+                SessionCookie.SESSION_SEND_ONLY_IF_CHANGED, true);
+        sessionTransferredOverHttpsOnly = configuration.getBooleanWithDefault(
+                SessionCookie.SESSION_OVER_HTTPS_ONLY, false);
+        sessionHttpOnly = configuration.getBooleanWithDefault(SessionCookie.SESSION_HTTP_ONLY, true);
+        sessionCacheSize = Math.max(0, configuration.getIntegerWithDefault(KEY_SESSION_CACHE_SIZE, 1024));
+        sessionTimestampGranularityInMs = Math.max(0,
+                configuration.getIntegerWithDefault(KEY_SESSION_TIMESTAMP_GRANULARITY, 0)) * 1000L;
+    }
+
+    /**
+     * @return the prefix of the application cookies.
+     */
+    public String applicationCookiePrefix() {
+        return applicationCookiePrefix;
+    }
+
+    /**
+     * @return the name of the session cookie.
+     */
+    public String sessionCookieName() {
+        return applicationCookiePrefix + SessionCookieImpl.SESSION_SUFFIX;
+    }
+
+    /**
+     * @return the name of the flash cookie.
+     */
+    public String flashCookieName() {
+        return applicationCookiePrefix + FlashCookieImpl.FLASH_SUFFIX;
+    }
+
+    /**
+     * @return the lifetime of the session in milliseconds.
+     */
+    public int sessionExpireTimeInMs() {
+        return sessionExpireTimeInMs;
+    }
+
+    /**
+     * @return whether the session cookie is only sent when the session has been modified.
+     */
+    public boolean sessionSendOnlyIfChanged() {
+        return sessionSendOnlyIfChanged;
+    }
+
+    /**
+     * @return whether the session cookie is only transferred over HTTPS.
+     */
+    public boolean sessionTransferredOverHttpsOnly() {
+        return sessionTransferredOverHttpsOnly;
+    }
+
+    /**
+     * @return whether the session cookie is not accessible from scripts.
+     */
+    public boolean sessionHttpOnly() {
+        return sessionHttpOnly;
+    }
+
+    /**
+     * @return the maximum number of verified session cookies kept in the cache, {@literal 0} if disabled.
+     */
+    public int sessionCacheSize() {
+        return sessionCacheSize;
+    }
+
+    /**
+     * @return the granularity of the session timestamp refresh in milliseconds.
+     */
+    public long sessionTimestampGranularityInMs() {
+        return sessionTimestampGranularityInMs;
+    }
+}
@@ -19,33 +19,38 @@
  */
 package org.wisdom.engine.wrapper.cookies;
 
-import com.google.common.collect.Maps;
 import io.netty.handler.codec.http.CookieDecoder;
+import io.netty.handler.codec.http.DefaultCookie;
 import io.netty.handler.codec.http.HttpHeaders;
 import io.netty.handler.codec.http.HttpRequest;
 import org.wisdom.api.cookies.Cookie;
 import org.wisdom.api.cookies.Cookies;
 
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
 
 /**
- * Implementation of cookies based on HTTP Servlet Cookies.
+ * Implementation of cookies based on the Netty request. The {@literal Cookie} header is parsed lazily: looking for a
+ * cookie only scans the header for its name, and the whole header is decoded only if it uses quoted values or
+ * attributes (such as {@literal $Path}), which require the complete decoder.
  */
 public class CookiesImpl implements Cookies {
 
-    private Map<String, Cookie> cookies = Maps.newTreeMap();
+    private final HttpRequest request;
 
-    public CookiesImpl(HttpRequest request) {
-        Set<io.netty.handler.codec.http.Cookie> localCookies;
-        String value = request.headers().get(HttpHeaders.Names.COOKIE);
-        if (value != null) {
-            localCookies = CookieDecoder.decode(value);
-            for (io.netty.handler.codec.http.Cookie cookie : localCookies) {
-                this.cookies.put(cookie.getName(), CookieHelper.convertNettyCookieToWisdomCookie(cookie));
-            }
-        }
+    /**
+     * The cookies found so far. A {@literal null} value denotes a cookie that is not in the request.
+     */
+    private final Map<String, Cookie> cookies = new HashMap<>();
 
+    /**
+     * Whether the whole header has been decoded, so {@link #cookies} contains all the cookies of the request.
+     */
+    private boolean decoded;
+
+    public CookiesImpl(HttpRequest request) {
+        this.request = request;
     }
 
     /**
@@ -54,6 +59,57 @@ public class CookiesImpl implements Cookies {
      */
     @Override
     public Cookie get(String name) {
-        return cookies.get(name);
+        if (decoded || cookies.containsKey(name)) {
+            return cookies.get(name);
+        }
+        String header = request.headers().get(HttpHeaders.Names.COOKIE);
+        if (header == null) {
+            return null;
+        }
+        if (requiresDecoder(header)) {
+            decode(header);
+            return cookies.get(name);
+        }
+        Cookie cookie = find(header, name);
+        cookies.put(name, cookie);
+        return cookie;
+    }
+
+    private static boolean requiresDecoder(String header) {
+        return header.indexOf('"') != -1 || header.indexOf('$') != -1 || header.indexOf(',') != -1;
+    }
+
+    /**
+     * Scans the header for the first cookie having the given name.
+     */
+    private static Cookie find(String header, String name) {
+        int start = 0;
+        int length = header.length();
+        while (start < length) {
+            int end = header.indexOf(';', start);
+            if (end == -1) {
+                end = length;
+            }
+            int separator = header.indexOf('=', start);
+            if (separator == -1 || separator > end) {
+                // A cookie without value.
+                separator = end;
+            }
+            if (header.substring(start, separator).trim().equals(name)) {
+                String value = separator < end ? header.substring(separator + 1, end).trim() : "";
+                return CookieHelper.convertNettyCookieToWisdomCookie(new DefaultCookie(name, value));
+            }
+            start = end + 1;
+        }
+        return null;
+    }
+
+    private void decode(String header) {
+        Set<io.netty.handler.codec.http.Cookie> localCookies = CookieDecoder.decode(header);
+        cookies.clear();
+        for (io.netty.handler.codec.http.Cookie cookie : localCookies) {
+            this.cookies.put(cookie.getName(), CookieHelper.convertNettyCookieToWisdomCookie(cookie));
+        }
+        decoded = true;
     }
 }
@@ -53,6 +53,15 @@ public class FlashCookieImpl implements FlashCookie {
         applicationCookiePrefix = configuration.getWithDefault(Cookie.APPLICATION_COOKIE_PREFIX, "wisdom");
     }
 
+    /**
+     * Creates the flash cookie using settings read once.
+     *
+     * @param settings the cookie settings
+     */
+    public FlashCookieImpl(CookieSettings settings) {
+        applicationCookiePrefix = settings.applicationCookiePrefix();
+    }
+
     @Override
     public void init(Context context) {
         // get flash cookie:
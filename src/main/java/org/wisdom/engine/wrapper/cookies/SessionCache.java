@@ -0,0 +1,90 @@
+/*
+ * #%L
+ * Wisdom-Framework
+ * %%
+ * Copyright (C) 2013 - 2014 Wisdom Framework
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.wisdom.engine.wrapper.cookies;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caches the verified session cookies. Clients send the same session cookie with every request, so the signature
+ * of a cookie value is verified and its payload decoded only once, until the session expires or the entry is
+ * evicted.
+ * <p>
+ * Only cookies whose signature has been verified (or that have been signed by the server) are cached, and the
+ * entries are keyed by the whole cookie value (signature and payload).
+ */
+public class SessionCache {
+
+    private final Cache<String, Map<String, String>> cache;
+
+    /**
+     * Creates the cache.
+     *
+     * @param size     the maximum number of cached sessions, {@literal 0} to disable the cache
+     * @param lifetime the lifetime of the entries in milliseconds (the session expiration time)
+     */
+    public SessionCache(int size, long lifetime) {
+        if (size > 0) {
+            cache = CacheBuilder.newBuilder()
+                    .maximumSize(size)
+                    .expireAfterWrite(Math.max(1, lifetime), TimeUnit.MILLISECONDS)
+                    .build();
+        } else {
+            cache = null;
+        }
+    }
+
+    /**
+     * Gets the data of a verified cookie.
+     *
+     * @param value the cookie value
+     * @return the (read-only) decoded data, {@literal null} if the cookie has not been verified yet
+     */
+    public Map<String, String> get(String value) {
+        if (cache == null) {
+            return null;
+        }
+        return cache.getIfPresent(value);
+    }
+
+    /**
+     * Stores the data of a verified cookie.
+     *
+     * @param value the cookie value
+     * @param data  the decoded data, copied
+     */
+    public void put(String value, Map<String, String> data) {
+        if (cache != null) {
+            cache.put(value, Collections.unmodifiableMap(new HashMap<>(data)));
+        }
+    }
+
+    /**
+     * @return the number of cached sessions.
+     */
+    public long size() {
+        return cache == null ? 0 : cache.size();
+    }
+}
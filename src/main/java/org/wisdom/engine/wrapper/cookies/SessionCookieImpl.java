@@ -47,11 +47,16 @@ public class SessionCookieImpl implements SessionCookie {
     private static final String TIMESTAMP_KEY = "___TS";
 
     private static final Logger LOGGER = LoggerFactory.getLogger(SessionCookieImpl.class);
-    private final Integer sessionExpireTimeInMs;
-    private final Boolean sessionSendOnlyIfChanged;
-    private final Boolean sessionTransferredOverHttpsOnly;
-    private final Boolean sessionHttpOnly;
+    private final int sessionExpireTimeInMs;
+    private final boolean sessionSendOnlyIfChanged;
+    private final boolean sessionTransferredOverHttpsOnly;
+    private final boolean sessionHttpOnly;
     private final String applicationCookiePrefix;
+    private final long timestampGranularityInMs;
+    /**
+     * The cache of verified cookies, {@literal null} if not used.
+     */
+    private final SessionCache cache;
     private final Map<String, String> data = new HashMap<>();
     /**
      * The crypto service.
@@ -61,22 +66,31 @@ public class SessionCookieImpl implements SessionCookie {
      * Has cookie been changed => only send new cookie stuff has been changed.
      */
     private boolean sessionDataHasBeenChanged = false;
+    /**
+     * Whether the timestamp of the incoming session has been refreshed, so the session must be renewed.
+     */
+    private boolean timestampRefreshed = false;
 
     public SessionCookieImpl(Crypto crypto, ApplicationConfiguration configuration) {
-        applicationCookiePrefix = configuration.getWithDefault(Cookie.APPLICATION_COOKIE_PREFIX, "wisdom");
-        this.crypto = crypto;
+        this(crypto, new CookieSettings(configuration), null);
+    }
 
-        // read configuration stuff:
-        sessionExpireTimeInMs =
-                configuration.getIntegerWithDefault(SessionCookie.SESSION_EXPIRE_TIME_SECOND, 3600) * 1000;
-
-        this.sessionSendOnlyIfChanged = configuration.getBooleanWithDefault(
-                SessionCookie.SESSION_SEND_ONLY_IF_CHANGED, true);
-        this.sessionTransferredOverHttpsOnly = configuration
-                .getBooleanWithDefault(
-                        SessionCookie.SESSION_OVER_HTTPS_ONLY, false);
-        this.sessionHttpOnly = configuration.getBooleanWithDefault(
-                SessionCookie.SESSION_HTTP_ONLY, true);
+    /**
+     * Creates the session cookie using settings read once.
+     *
+     * @param crypto   the crypto service
+     * @param settings the cookie settings
+     * @param cache    the cache of verified cookies, {@literal null} to verify every cookie
+     */
+    public SessionCookieImpl(Crypto crypto, CookieSettings settings, SessionCache cache) {
+        this.crypto = crypto;
+        this.cache = cache;
+        this.timestampGranularityInMs = settings.sessionTimestampGranularityInMs();
+        this.applicationCookiePrefix = settings.applicationCookiePrefix();
+        this.sessionExpireTimeInMs = settings.sessionExpireTimeInMs();
+        this.sessionSendOnlyIfChanged = settings.sessionSendOnlyIfChanged();
+        this.sessionTransferredOverHttpsOnly = settings.sessionTransferredOverHttpsOnly();
+        this.sessionHttpOnly = settings.sessionHttpOnly();
     }
 
     /**
@@ -102,9 +116,15 @@ public class SessionCookieImpl implements SessionCookie {
                 // rest from "-" until the end it the payload of the cookie
                 String payload = value.substring(value.indexOf('-') + 1);
 
-                if (CookieDataCodec.safeEquals(sign,
+                Map<String, String> verified = cache == null ? null : cache.get(value);
+                if (verified != null) {
+                    data.putAll(verified);
+                } else if (CookieDataCodec.safeEquals(sign,
                         crypto.sign(payload))) {
                     CookieDataCodec.decode(data, payload);
+                    if (cache != null) {
+                        cache.put(value, data);
+                    }
                 } else {
                     LOGGER.warn("Invalid session cookie - signature check failed");
                 }
@@ -122,8 +142,13 @@ public class SessionCookieImpl implements SessionCookie {
                     }
                 }
 
-                // Everything's alright => prolong session
-                data.put(TIMESTAMP_KEY, Long.toString(System.currentTimeMillis()));
+                // Everything's alright => prolong session, at most once per granularity period
+                long now = System.currentTimeMillis();
+                String timestamp = data.get(TIMESTAMP_KEY);
+                if (timestamp == null || Long.parseLong(timestamp) + timestampGranularityInMs <= now) {
+                    data.put(TIMESTAMP_KEY, Long.toString(now));
+                    timestampRefreshed = true;
+                }
             }
 
         } catch (UnsupportedEncodingException unsupportedEncodingException) {
@@ -155,8 +180,8 @@ public class SessionCookieImpl implements SessionCookie {
     public void save(Context context, Result result) {
         // Don't save the cookie nothing has changed, and if we're not expiring
         // or we are expiring but we're only updating if the session changes
-        if (!sessionDataHasBeenChanged && sessionSendOnlyIfChanged) {
-            // Nothing changed and no cookie-expire, consequently send nothing
+        if (!sessionDataHasBeenChanged && (sessionSendOnlyIfChanged || !timestampRefreshed)) {
+            // Nothing changed and no cookie-expire (or the timestamp is recent enough), consequently send nothing
             // back.
             return;
         }
@@ -188,18 +213,19 @@ public class SessionCookieImpl implements SessionCookie {
             String sessionData = CookieDataCodec.encode(data);
 
             String sign = crypto.sign(sessionData);
+            String value = sign + "-" + sessionData;
+            if (cache != null) {
+                // The client sends this value with the next requests.
+                cache.put(value, data);
+            }
 
             Cookie.Builder cookie = Cookie.builder(applicationCookiePrefix
-                    + SESSION_SUFFIX, sign + "-" + sessionData);
+                    + SESSION_SUFFIX, value);
             cookie.setPath("/");
 
             cookie.setMaxAge(sessionExpireTimeInMs / 1000);
-            if (sessionTransferredOverHttpsOnly != null) {
-                cookie.setSecure(sessionTransferredOverHttpsOnly);
-            }
-            if (sessionHttpOnly != null) {
-                cookie.setHttpOnly(sessionHttpOnly);
-            }
+            cookie.setSecure(sessionTransferredOverHttpsOnly);
+            cookie.setHttpOnly(sessionHttpOnly);
 
             result.with(cookie.build());
 
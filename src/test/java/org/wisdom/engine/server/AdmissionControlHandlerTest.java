@@ -0,0 +1,143 @@
+/*
+ * #%L
+ * Wisdom-Framework
+ * %%
+ * Copyright (C) 2013 - 2014 Wisdom Framework
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.wisdom.engine.server;
+
+import com.google.common.collect.ImmutableList;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.*;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Checks the admission control of the requests, using embedded channels.
+ */
+public class AdmissionControlHandlerTest {
+
+    @Test
+    public void testRejectionWithRetryAfter() {
+        AdmissionLimiter limiter = limiter(1);
+        EmbeddedChannel first = channel(limiter);
+        EmbeddedChannel second = channel(limiter);
+
+        send(first, "/api");
+        assertThat(first.readInbound()).isInstanceOf(HttpRequest.class);
+        send(second, "/api");
+        // Neither the request nor its content reach the next handlers.
+        assertThat(second.readInbound()).isNull();
+        FullHttpResponse rejection = response(second);
+        assertThat(rejection.getStatus()).isEqualTo(HttpResponseStatus.SERVICE_UNAVAILABLE);
+        assertThat(rejection.headers().get(HttpHeaders.Names.RETRY_AFTER)).isEqualTo("3");
+        assertThat(second.isOpen()).isTrue();
+
+        // Writing the response releases the permit.
+        respond(first);
+        send(second, "/api");
+        assertThat(second.readInbound()).isInstanceOf(HttpRequest.class);
+        assertThat(limiter.statistics()).containsEntry("admitted", 2L).containsEntry("rejected", 1L);
+    }
+
+    @Test
+    public void testBypassedRequestsDoNotTakeAPermit() {
+        AdmissionLimiter limiter = limiter(1);
+        EmbeddedChannel first = channel(limiter);
+        EmbeddedChannel second = channel(limiter);
+        send(first, "/api");
+
+        send(second, "/health");
+        assertThat(second.readInbound()).isInstanceOf(HttpRequest.class);
+        respond(second);
+        assertThat(limiter.statistics()).containsEntry("inFlight", 1).containsEntry("bypassed", 1L);
+    }
+
+    @Test
+    public void testEachPipelinedRequestTakesAPermit() {
+        AdmissionLimiter limiter = limiter(2);
+        EmbeddedChannel channel = channel(limiter);
+
+        send(channel, "/api", "/api", "/api");
+        assertThat(limiter.statistics()).containsEntry("inFlight", 2).containsEntry("rejected", 1L);
+        // The rejection of the third request waits for the responses to the previous ones.
+        assertThat(channel.readOutbound()).isNull();
+
+        respond(channel);
+        assertThat(response(channel).getStatus()).isEqualTo(HttpResponseStatus.OK);
+        assertThat(channel.readOutbound()).isNull();
+        assertThat(limiter.statistics()).containsEntry("inFlight", 1);
+
+        respond(channel);
+        assertThat(response(channel).getStatus()).isEqualTo(HttpResponseStatus.OK);
+        assertThat(response(channel).getStatus()).isEqualTo(HttpResponseStatus.SERVICE_UNAVAILABLE);
+        assertThat(limiter.statistics()).containsEntry("inFlight", 0);
+    }
+
+    @Test
+    public void testContinueDoesNotReleaseThePermit() {
+        AdmissionLimiter limiter = limiter(1);
+        EmbeddedChannel channel = channel(limiter);
+        send(channel, "/api");
+
+        channel.writeOutbound(new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.CONTINUE));
+        assertThat(limiter.statistics()).containsEntry("inFlight", 1);
+        respond(channel);
+        assertThat(limiter.statistics()).containsEntry("inFlight", 0);
+    }
+
+    @Test
+    public void testPermitsAreReleasedWhenTheConnectionIsClosed() {
+        AdmissionLimiter limiter = limiter(2);
+        EmbeddedChannel channel = channel(limiter);
+        send(channel, "/api", "/api");
+        assertThat(limiter.statistics()).containsEntry("inFlight", 2);
+
+        channel.close();
+        assertThat(limiter.statistics()).containsEntry("inFlight", 0);
+    }
+
+    private static AdmissionLimiter limiter(int limit) {
+        return new AdmissionLimiter(limit, limit, limit, 500, 0.9, 3, ImmutableList.of("/health"));
+    }
+
+    private static EmbeddedChannel channel(AdmissionLimiter limiter) {
+        return new EmbeddedChannel(new AdmissionControlHandler(limiter));
+    }
+
+    /**
+     * Sends the given requests (without body) in a single read batch, like pipelined requests.
+     */
+    private static void send(EmbeddedChannel channel, String... paths) {
+        Object[] messages = new Object[paths.length * 2];
+        for (int i = 0; i < paths.length; i++) {
+            messages[2 * i] = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, paths[i]);
+            messages[2 * i + 1] = LastHttpContent.EMPTY_LAST_CONTENT;
+        }
+        channel.writeInbound(messages);
+    }
+
+    private static void respond(EmbeddedChannel channel) {
+        channel.writeOutbound(new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK));
+    }
+
+    private static FullHttpResponse response(EmbeddedChannel channel) {
+        Object response = channel.readOutbound();
+        assertThat(response).isInstanceOf(FullHttpResponse.class);
+        return (FullHttpResponse) response;
+    }
+}
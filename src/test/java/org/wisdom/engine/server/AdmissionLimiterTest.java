@@ -0,0 +1,102 @@
+/*
+ * #%L
+ * Wisdom-Framework
+ * %%
+ * Copyright (C) 2013 - 2014 Wisdom Framework
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.wisdom.engine.server;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+import org.wisdom.api.configuration.ApplicationConfiguration;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Checks the AIMD policy of the admission limiter.
+ */
+public class AdmissionLimiterTest {
+
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(200);
+
+    @Test
+    public void testDisabledByDefault() {
+        assertThat(AdmissionLimiter.fromConfiguration(mock(ApplicationConfiguration.class))).isNull();
+    }
+
+    @Test
+    public void testInvalidBackoffFallsBackToTheDefault() {
+        ApplicationConfiguration configuration = mock(ApplicationConfiguration.class);
+        when(configuration.getBooleanWithDefault("netty.admission.enabled", false)).thenReturn(true);
+        when(configuration.get("netty.admission.backoff")).thenReturn("2");
+        AdmissionLimiter limiter = AdmissionLimiter.fromConfiguration(configuration);
+        // The mocked configuration returns 0 for the limits: the minimum is 1.
+        assertThat(limiter).isNotNull();
+        assertThat(limiter.limit()).isEqualTo(1);
+    }
+
+    @Test
+    public void testRequestsOverTheLimitAreRejected() {
+        AdmissionLimiter limiter = new AdmissionLimiter(2, 1, 10, 100, 0.5, 1, ImmutableList.<String>of());
+        assertThat(limiter.tryAcquire()).isTrue();
+        assertThat(limiter.tryAcquire()).isTrue();
+        assertThat(limiter.tryAcquire()).isFalse();
+        assertThat(limiter.statistics()).containsEntry("inFlight", 2).containsEntry("admitted", 2L)
+                .containsEntry("rejected", 1L);
+    }
+
+    @Test
+    public void testAdditiveIncreaseAndMultiplicativeDecrease() {
+        AdmissionLimiter limiter = new AdmissionLimiter(4, 2, 5, 100, 0.5, 1, ImmutableList.<String>of());
+        for (int i = 0; i < 4; i++) {
+            assertThat(limiter.tryAcquire()).isTrue();
+        }
+
+        // Fast requests while the limit is used: +1, up to the maximum.
+        limiter.release(FAST);
+        assertThat(limiter.limit()).isEqualTo(5);
+        limiter.release(FAST);
+        assertThat(limiter.limit()).isEqualTo(5);
+
+        // Slow requests: multiplied by the backoff ratio, down to the minimum.
+        limiter.release(SLOW);
+        assertThat(limiter.limit()).isEqualTo(2);
+        limiter.release(SLOW);
+        assertThat(limiter.limit()).isEqualTo(2);
+        assertThat(limiter.statistics()).containsEntry("inFlight", 0);
+    }
+
+    @Test
+    public void testNoIncreaseWhenTheLimitIsNotUsed() {
+        AdmissionLimiter limiter = new AdmissionLimiter(4, 1, 10, 100, 0.5, 1, ImmutableList.<String>of());
+        assertThat(limiter.tryAcquire()).isTrue();
+        limiter.release(FAST);
+        assertThat(limiter.limit()).isEqualTo(4);
+    }
+
+    @Test
+    public void testBypass() {
+        AdmissionLimiter limiter = new AdmissionLimiter(4, 1, 10, 100, 0.5, 1, ImmutableList.of("/health"));
+        assertThat(limiter.isBypassed("/health/live")).isTrue();
+        assertThat(limiter.isBypassed("/api")).isFalse();
+        assertThat(limiter.statistics()).containsEntry("bypassed", 1L);
+    }
+}
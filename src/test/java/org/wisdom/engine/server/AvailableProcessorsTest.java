@@ -0,0 +1,62 @@
+/*
+ * #%L
+ * Wisdom-Framework
+ * %%
+ * Copyright (C) 2013 - 2014 Wisdom Framework
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.wisdom.engine.server;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Checks the computation of the CPU quota, and the validation of the I/O ratio.
+ */
+public class AvailableProcessorsTest {
+
+    @Test
+    public void testCgroupV2() {
+        assertThat(AvailableProcessors.parseCgroupV2("max 100000")).isEqualTo(-1);
+        assertThat(AvailableProcessors.parseCgroupV2("200000 100000")).isEqualTo(2);
+        assertThat(AvailableProcessors.parseCgroupV2("150000 100000\n")).isEqualTo(2);
+        assertThat(AvailableProcessors.parseCgroupV2("50000 100000")).isEqualTo(1);
+    }
+
+    @Test
+    public void testCgroupV1() {
+        assertThat(AvailableProcessors.parseCgroupV1("-1", "100000")).isEqualTo(-1);
+        assertThat(AvailableProcessors.parseCgroupV1("400000", "100000")).isEqualTo(4);
+        assertThat(AvailableProcessors.parseCgroupV1("10000\n", "100000\n")).isEqualTo(1);
+    }
+
+    @Test
+    public void testIoRatio() {
+        assertThat(AvailableProcessors.ioRatio(1)).isEqualTo(1);
+        assertThat(AvailableProcessors.ioRatio(70)).isEqualTo(70);
+        assertThat(AvailableProcessors.ioRatio(100)).isEqualTo(100);
+        // Both invalid ranges fall back to the default.
+        assertThat(AvailableProcessors.ioRatio(101)).isEqualTo(AvailableProcessors.DEFAULT_IO_RATIO);
+        assertThat(AvailableProcessors.ioRatio(0)).isEqualTo(AvailableProcessors.DEFAULT_IO_RATIO);
+        assertThat(AvailableProcessors.ioRatio(-5)).isEqualTo(AvailableProcessors.DEFAULT_IO_RATIO);
+    }
+
+    @Test
+    public void testAtLeastOneProcessor() {
+        assertThat(AvailableProcessors.get()).isGreaterThanOrEqualTo(1);
+        assertThat(AvailableProcessors.get()).isLessThanOrEqualTo(Runtime.getRuntime().availableProcessors());
+    }
+}
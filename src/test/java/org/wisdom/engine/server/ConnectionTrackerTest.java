@@ -0,0 +1,79 @@
+/*
+ * #%L
+ * Wisdom-Framework
+ * %%
+ * Copyright (C) 2013 - 2014 Wisdom Framework
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.wisdom.engine.server;
+
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Checks the accounting of the requests in progress used to drain the connections.
+ */
+public class ConnectionTrackerTest {
+
+    @Test
+    public void testIdleWhenNoRequestIsInProgress() throws InterruptedException {
+        ConnectionTracker tracker = new ConnectionTracker();
+        tracker.register(new EmbeddedChannel());
+        assertThat(tracker.isDraining()).isFalse();
+
+        tracker.startDraining();
+        assertThat(tracker.isDraining()).isTrue();
+        assertThat(tracker.awaitIdle(0, TimeUnit.MILLISECONDS)).isTrue();
+        assertThat(tracker.connections()).isEqualTo(1);
+    }
+
+    @Test
+    public void testIdleOnceTheLastRequestIsCompleted() throws InterruptedException {
+        ConnectionTracker tracker = new ConnectionTracker();
+        EmbeddedChannel first = new EmbeddedChannel();
+        EmbeddedChannel second = new EmbeddedChannel();
+        tracker.requestStarted(first);
+        // A pipelined request starting while the response to the previous one is being written.
+        tracker.requestStarted(first);
+        tracker.requestStarted(second);
+        assertThat(tracker.inFlight()).isEqualTo(3);
+        assertThat(tracker.busyConnections()).isEqualTo(2);
+
+        tracker.startDraining();
+        assertThat(tracker.awaitIdle(10, TimeUnit.MILLISECONDS)).isFalse();
+        tracker.requestCompleted(first);
+        tracker.requestCompleted(second);
+        assertThat(tracker.awaitIdle(10, TimeUnit.MILLISECONDS)).isFalse();
+        assertThat(tracker.busyConnections()).isEqualTo(1);
+
+        tracker.requestCompleted(first);
+        assertThat(tracker.awaitIdle(1, TimeUnit.SECONDS)).isTrue();
+        assertThat(tracker.inFlight()).isZero();
+    }
+
+    @Test
+    public void testCompletingAnUnknownRequestIsIgnored() throws InterruptedException {
+        ConnectionTracker tracker = new ConnectionTracker();
+        EmbeddedChannel channel = new EmbeddedChannel();
+        tracker.requestStarted(channel);
+        tracker.requestCompleted(channel);
+        tracker.requestCompleted(channel);
+        assertThat(tracker.inFlight()).isZero();
+    }
+}
@@ -40,6 +40,7 @@ import java.net.URL;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Mockito.*;
@@ -113,7 +114,8 @@ public class DispatcherTest {
 
         dispatcher.start();
         // Wait for initialization.
-        Thread.sleep(5000);
+        assertThat(dispatcher.ready().await(20, TimeUnit.SECONDS)).isTrue();
+        assertThat(dispatcher.ready().isSuccess()).isTrue();
 
         int http = dispatcher.httpPort();
         int https = dispatcher.httpsPort();
@@ -0,0 +1,137 @@
+/*
+ * #%L
+ * Wisdom-Framework
+ * %%
+ * Copyright (C) 2013 - 2014 Wisdom Framework
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.wisdom.engine.server;
+
+import io.netty.channel.ChannelOption;
+import org.junit.Test;
+import org.wisdom.api.configuration.ApplicationConfiguration;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Checks the parsing and validation of the listener options.
+ */
+public class ListenerOptionsTest {
+
+    @Test
+    public void testDefaults() {
+        ApplicationConfiguration configuration = mock(ApplicationConfiguration.class);
+        ListenerOptions options = ListenerOptions.fromConfiguration(configuration, "HTTP", "netty.http");
+        assertThat(options.serverOptions()).isEmpty();
+        assertThat(options.childOptions()).hasSize(1);
+        assertThat(options.childOptions().get(ChannelOption.TCP_NODELAY)).isEqualTo(true);
+    }
+
+    @Test
+    public void testListenerOptionsOverrideGlobalOptions() {
+        ApplicationConfiguration configuration = mock(ApplicationConfiguration.class);
+        when(configuration.get("netty.backlog")).thenReturn("128");
+        when(configuration.get("netty.http.backlog")).thenReturn("1024");
+        when(configuration.get("netty.tcpNoDelay")).thenReturn("false");
+        when(configuration.get("netty.https.keepAlive")).thenReturn("true");
+
+        ListenerOptions http = ListenerOptions.fromConfiguration(configuration, "HTTP", "netty.http");
+        assertThat(http.serverOptions().get(ChannelOption.SO_BACKLOG)).isEqualTo(1024);
+        assertThat(http.childOptions().get(ChannelOption.TCP_NODELAY)).isEqualTo(false);
+        assertThat(http.childOptions().containsKey(ChannelOption.SO_KEEPALIVE)).isFalse();
+
+        ListenerOptions https = ListenerOptions.fromConfiguration(configuration, "HTTPS", "netty.https");
+        assertThat(https.serverOptions().get(ChannelOption.SO_BACKLOG)).isEqualTo(128);
+        assertThat(https.childOptions().get(ChannelOption.SO_KEEPALIVE)).isEqualTo(true);
+    }
+
+    @Test
+    public void testInvalidValuesAreIgnored() {
+        ApplicationConfiguration configuration = mock(ApplicationConfiguration.class);
+        when(configuration.get("netty.backlog")).thenReturn("lots");
+        when(configuration.get("netty.sendBufferSize")).thenReturn("-5");
+        when(configuration.get("netty.autoRead")).thenReturn("maybe");
+        when(configuration.get("netty.writeBufferHighWaterMark")).thenReturn("1024");
+        when(configuration.get("netty.writeBufferLowWaterMark")).thenReturn("4096");
+
+        ListenerOptions options = ListenerOptions.fromConfiguration(configuration, "HTTP", "netty.http");
+        assertThat(options.serverOptions()).isEmpty();
+        assertThat(options.childOptions()).hasSize(1);
+        assertThat(options.childOptions().get(ChannelOption.TCP_NODELAY)).isEqualTo(true);
+    }
+
+    @Test
+    public void testBufferSizesAndWaterMarks() {
+        ApplicationConfiguration configuration = mock(ApplicationConfiguration.class);
+        when(configuration.get("netty.http.receiveBufferSize")).thenReturn("65536");
+        when(configuration.get("netty.http.sendBufferSize")).thenReturn("32768");
+        when(configuration.get("netty.writeBufferHighWaterMark")).thenReturn("65536");
+        when(configuration.get("netty.writeBufferLowWaterMark")).thenReturn("32768");
+
+        ListenerOptions options = ListenerOptions.fromConfiguration(configuration, "HTTP", "netty.http");
+        assertThat(options.serverOptions().get(ChannelOption.SO_RCVBUF)).isEqualTo(65536);
+        assertThat(options.childOptions().get(ChannelOption.SO_RCVBUF)).isEqualTo(65536);
+        assertThat(options.childOptions().get(ChannelOption.SO_SNDBUF)).isEqualTo(32768);
+        assertThat(options.childOptions().get(ChannelOption.WRITE_BUFFER_HIGH_WATER_MARK)).isEqualTo(65536);
+        assertThat(options.childOptions().get(ChannelOption.WRITE_BUFFER_LOW_WATER_MARK)).isEqualTo(32768);
+    }
+
+    @Test
+    public void testWaterMarksOrder() {
+        ApplicationConfiguration configuration = mock(ApplicationConfiguration.class);
+        when(configuration.get("netty.writeBufferHighWaterMark")).thenReturn("16384");
+        when(configuration.get("netty.writeBufferLowWaterMark")).thenReturn("8192");
+        ListenerOptions options = ListenerOptions.fromConfiguration(configuration, "HTTP", "netty.http");
+        // Shrinking, the low mark is applied first.
+        List<ChannelOption<?>> keys = new ArrayList<>(options.childOptions().keySet());
+        assertThat(keys.indexOf(ChannelOption.WRITE_BUFFER_LOW_WATER_MARK))
+                .isLessThan(keys.indexOf(ChannelOption.WRITE_BUFFER_HIGH_WATER_MARK));
+
+        configuration = mock(ApplicationConfiguration.class);
+        when(configuration.get("netty.writeBufferHighWaterMark")).thenReturn("262144");
+        when(configuration.get("netty.writeBufferLowWaterMark")).thenReturn("131072");
+        options = ListenerOptions.fromConfiguration(configuration, "HTTP", "netty.http");
+        // Growing, the high mark is applied first.
+        keys = new ArrayList<>(options.childOptions().keySet());
+        assertThat(keys.indexOf(ChannelOption.WRITE_BUFFER_HIGH_WATER_MARK))
+                .isLessThan(keys.indexOf(ChannelOption.WRITE_BUFFER_LOW_WATER_MARK));
+
+        // A single mark inconsistent with the default value of the other one is ignored.
+        configuration = mock(ApplicationConfiguration.class);
+        when(configuration.get("netty.writeBufferHighWaterMark")).thenReturn("16384");
+        options = ListenerOptions.fromConfiguration(configuration, "HTTP", "netty.http");
+        assertThat(options.childOptions()).doesNotContainKey(ChannelOption.WRITE_BUFFER_HIGH_WATER_MARK);
+    }
+
+    @Test
+    public void testNamedListenerOptions() {
+        ApplicationConfiguration configuration = mock(ApplicationConfiguration.class);
+        when(configuration.get("netty.backlog")).thenReturn("128");
+        when(configuration.get("netty.http.backlog")).thenReturn("256");
+        when(configuration.get("netty.http.listeners.public.backlog")).thenReturn("4096");
+
+        ListenerOptions options = ListenerOptions.fromConfiguration(configuration, "HTTP public",
+                "netty.http.listeners.public", "netty.http");
+        assertThat(options.serverOptions().get(ChannelOption.SO_BACKLOG)).isEqualTo(4096);
+        options = ListenerOptions.fromConfiguration(configuration, "HTTP local",
+                "netty.http.listeners.local", "netty.http");
+        assertThat(options.serverOptions().get(ChannelOption.SO_BACKLOG)).isEqualTo(256);
+    }
+}
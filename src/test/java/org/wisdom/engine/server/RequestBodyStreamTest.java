@@ -0,0 +1,142 @@
+/*
+ * #%L
+ * Wisdom-Framework
+ * %%
+ * Copyright (C) 2013 - 2014 Wisdom Framework
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.wisdom.engine.server;
+
+import com.google.common.base.Charsets;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks the streamed request bodies, and their backpressure.
+ */
+public class RequestBodyStreamTest {
+
+    private final EmbeddedChannel channel = new EmbeddedChannel();
+
+    @Test
+    public void testReadsStopAboveTheHighWaterMark() throws IOException {
+        RequestBodyStream stream = new RequestBodyStream(channel, 8);
+        stream.offer(chunk("1234"));
+        assertThat(channel.config().isAutoRead()).isTrue();
+        stream.offer(chunk("5678"));
+        assertThat(channel.config().isAutoRead()).isFalse();
+        assertThat(stream.available()).isEqualTo(8);
+    }
+
+    @Test
+    public void testReadsResumeAtTheLowWaterMark() throws IOException {
+        RequestBodyStream stream = new RequestBodyStream(channel, 8);
+        stream.offer(chunk("12345678"));
+        byte[] bytes = new byte[2];
+
+        assertThat(stream.read(bytes, 0, 2)).isEqualTo(2);
+        channel.runPendingTasks();
+        assertThat(channel.config().isAutoRead()).isFalse();
+
+        // 4 bytes left: the low water mark is reached, the reads are resumed on the event loop.
+        assertThat(stream.read(bytes, 0, 2)).isEqualTo(2);
+        assertThat(channel.config().isAutoRead()).isFalse();
+        channel.runPendingTasks();
+        assertThat(channel.config().isAutoRead()).isTrue();
+    }
+
+    @Test
+    public void testReadsAreNotResumedOnceCompleted() throws IOException {
+        RequestBodyStream stream = new RequestBodyStream(channel, 8);
+        stream.offer(chunk("12345678"));
+        stream.complete();
+        assertThat(stream.isCompleted()).isTrue();
+
+        assertThat(IOUtils.toString(stream, "UTF-8")).isEqualTo("12345678");
+        channel.runPendingTasks();
+        // Once the body is complete, the handler owns the reads of the channel.
+        assertThat(channel.config().isAutoRead()).isFalse();
+    }
+
+    @Test
+    public void testCompletion() throws IOException {
+        RequestBodyStream stream = new RequestBodyStream(channel, 1024);
+        ByteBuf first = chunk("hello ");
+        ByteBuf second = chunk("world");
+        stream.offer(first);
+        stream.offer(Unpooled.EMPTY_BUFFER);
+        stream.offer(second);
+        stream.complete();
+
+        assertThat(IOUtils.toString(stream, "UTF-8")).isEqualTo("hello world");
+        assertThat(stream.read()).isEqualTo(-1);
+        // The chunks are released once read.
+        assertThat(first.refCnt()).isEqualTo(1);
+        assertThat(second.refCnt()).isEqualTo(1);
+    }
+
+    @Test
+    public void testFailure() {
+        RequestBodyStream stream = new RequestBodyStream(channel, 1024);
+        ByteBuf chunk = chunk("hello");
+        stream.offer(chunk);
+        IOException cause = new IOException("Too large");
+        stream.fail(cause);
+        assertThat(chunk.refCnt()).isEqualTo(1);
+
+        try {
+            stream.read();
+            fail("The failure must be reported to the reader");
+        } catch (IOException e) {
+            assertThat(e).isSameAs(cause);
+        }
+        // The chunks received later are ignored.
+        ByteBuf late = chunk("late");
+        stream.offer(late);
+        assertThat(late.refCnt()).isEqualTo(1);
+    }
+
+    @Test
+    public void testClose() {
+        RequestBodyStream stream = new RequestBodyStream(channel, 1024);
+        ByteBuf chunk = chunk("hello");
+        stream.offer(chunk);
+        stream.close();
+        assertThat(chunk.refCnt()).isEqualTo(1);
+        assertThat(stream.available()).isZero();
+
+        try {
+            stream.read();
+            fail("A closed stream cannot be read");
+        } catch (IOException e) {
+            assertThat(e.getMessage()).isEqualTo("Stream closed");
+        }
+        ByteBuf late = chunk("late");
+        stream.offer(late);
+        assertThat(late.refCnt()).isEqualTo(1);
+    }
+
+    private static ByteBuf chunk(String content) {
+        return Unpooled.copiedBuffer(content, Charsets.UTF_8);
+    }
+}
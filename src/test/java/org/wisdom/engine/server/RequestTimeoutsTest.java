@@ -0,0 +1,109 @@
+/*
+ * #%L
+ * Wisdom-Framework
+ * %%
+ * Copyright (C) 2013 - 2014 Wisdom Framework
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.wisdom.engine.server;
+
+import io.netty.util.Timeout;
+import io.netty.util.TimerTask;
+import org.junit.Test;
+import org.wisdom.api.configuration.ApplicationConfiguration;
+import org.wisdom.api.router.Route;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Checks the resolution of the request deadlines.
+ */
+public class RequestTimeoutsTest {
+
+    @Test
+    public void testLongestPrefixWins() {
+        Map<String, Long> timeouts = new LinkedHashMap<>();
+        // The shortest prefix first, the order must not matter.
+        timeouts.put("/api", 100L);
+        timeouts.put("/api/reports", 500L);
+        RequestTimeouts deadlines = new RequestTimeouts(50, timeouts, true);
+
+        assertThat(deadlines.timeoutFor("/api/reports/2014")).isEqualTo(500);
+        assertThat(deadlines.timeoutFor("/api/users")).isEqualTo(100);
+        assertThat(deadlines.timeoutFor("/other")).isEqualTo(50);
+        assertThat(deadlines.timeoutFor(null)).isEqualTo(50);
+    }
+
+    @Test
+    public void testNoDeadlineByDefault() {
+        RequestTimeouts deadlines = RequestTimeouts.fromConfiguration(mock(ApplicationConfiguration.class), true);
+        assertThat(deadlines.timeoutFor("/")).isZero();
+    }
+
+    @Test
+    public void testFromConfiguration() {
+        ApplicationConfiguration configuration = mock(ApplicationConfiguration.class);
+        when(configuration.getIntegerWithDefault(eq("netty.request.timeout"), anyInt())).thenReturn(30);
+        when(configuration.get("netty.request.timeouts"))
+                .thenReturn("/api/reports = 500, /api=100, invalid, /broken=abc");
+        RequestTimeouts deadlines = RequestTimeouts.fromConfiguration(configuration, true);
+
+        assertThat(deadlines.timeoutFor("/api/reports")).isEqualTo(500);
+        assertThat(deadlines.timeoutFor("/api")).isEqualTo(100);
+        // Invalid entries are ignored.
+        assertThat(deadlines.timeoutFor("/broken")).isEqualTo(30);
+        assertThat(deadlines.timeoutFor("/invalid")).isEqualTo(30);
+    }
+
+    @Test
+    public void testTimedOutStatistics() {
+        RequestTimeouts deadlines = new RequestTimeouts(0, Collections.<String, Long>emptyMap(), true);
+        Route route = mock(Route.class);
+        when(route.getHttpMethod()).thenReturn("GET");
+        when(route.getUrl()).thenReturn("/api");
+        deadlines.timedOut(route);
+        deadlines.timedOut(route);
+        deadlines.timedOut(null);
+
+        assertThat(deadlines.statistics()).hasSize(2).containsEntry("GET /api", 2L).containsEntry("unknown", 1L);
+    }
+
+    @Test
+    public void testSchedule() throws InterruptedException {
+        RequestTimeouts deadlines = new RequestTimeouts(0, Collections.<String, Long>emptyMap(), true);
+        try {
+            final CountDownLatch expired = new CountDownLatch(1);
+            deadlines.schedule(new TimerTask() {
+                @Override
+                public void run(Timeout timeout) {
+                    expired.countDown();
+                }
+            }, 10);
+            assertThat(expired.await(5, TimeUnit.SECONDS)).isTrue();
+        } finally {
+            deadlines.stop();
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * #%L
+ * Wisdom-Framework
+ * %%
+ * Copyright (C) 2013 - 2014 Wisdom Framework
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.wisdom.engine.server;
+
+import com.google.common.collect.ImmutableMap;
+import org.junit.Test;
+import org.wisdom.api.Controller;
+import org.wisdom.api.router.Route;
+import org.wisdom.api.router.Router;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.*;
+
+/**
+ * Checks the route cache.
+ */
+public class RouteCacheTest {
+
+    @Test
+    public void testBoundAndUnboundRoutesAreCached() {
+        Router router = mock(Router.class);
+        Route route = mock(Route.class);
+        when(route.getPathParametersEncoded("/items/42")).thenReturn(ImmutableMap.of("id", "42"));
+        Route missing = mock(Route.class);
+        when(missing.isUnbound()).thenReturn(true);
+        when(router.getRouteFor("GET", "/items/42")).thenReturn(route);
+        when(router.getRouteFor("GET", "/wp-admin")).thenReturn(missing);
+        RouteCache cache = new RouteCache(16, 60000, 5000);
+
+        RouteCache.Resolution resolution = cache.resolve(router, "GET", "/items/42");
+        assertThat(resolution.route()).isSameAs(route);
+        assertThat(resolution.pathParameters()).containsEntry("id", "42");
+        assertThat(cache.resolve(router, "GET", "/items/42").route()).isSameAs(route);
+        verify(router, times(1)).getRouteFor("GET", "/items/42");
+        verify(route, times(1)).getPathParametersEncoded("/items/42");
+
+        assertThat(cache.resolve(router, "GET", "/wp-admin").route()).isSameAs(missing);
+        assertThat(cache.resolve(router, "GET", "/wp-admin").pathParameters()).isEmpty();
+        verify(router, times(1)).getRouteFor("GET", "/wp-admin");
+
+        assertThat(cache.statistics()).containsEntry("bound", 1L).containsEntry("unbound", 1L)
+                .containsEntry("hits", 2L).containsEntry("misses", 2L);
+
+        cache.invalidate();
+        cache.resolve(router, "GET", "/items/42");
+        verify(router, times(2)).getRouteFor("GET", "/items/42");
+    }
+
+    @Test
+    public void testRoutesOfDepartedControllersAreNotUsed() {
+        Router router = mock(Router.class);
+        Controller controller = mock(Controller.class);
+        Route route = mock(Route.class);
+        when(route.getControllerObject()).thenReturn(controller);
+        when(router.getRouteFor("GET", "/items")).thenReturn(route);
+        Set<Controller> controllers = Collections.newSetFromMap(new ConcurrentHashMap<Controller, Boolean>());
+        controllers.add(controller);
+        RouteCache cache = new RouteCache(16, 60000, 5000);
+        cache.track(controllers);
+
+        cache.resolve(router, "GET", "/items");
+        cache.resolve(router, "GET", "/items");
+        verify(router, times(1)).getRouteFor("GET", "/items");
+
+        // The controller leaves, but the router has not been updated yet: the route is resolved again each time,
+        // and not cached, even though the cache has not been invalidated.
+        controllers.remove(controller);
+        assertThat(cache.resolve(router, "GET", "/items").route()).isSameAs(route);
+        assertThat(cache.resolve(router, "GET", "/items").route()).isSameAs(route);
+        verify(router, times(3)).getRouteFor("GET", "/items");
+        assertThat(cache.statistics()).containsEntry("bound", 0L);
+
+        // Once the router returns the unbound route, it is cached.
+        Route unbound = mock(Route.class);
+        when(unbound.isUnbound()).thenReturn(true);
+        when(router.getRouteFor("GET", "/items")).thenReturn(unbound);
+        assertThat(cache.resolve(router, "GET", "/items").route()).isSameAs(unbound);
+        assertThat(cache.resolve(router, "GET", "/items").route()).isSameAs(unbound);
+        verify(router, times(4)).getRouteFor("GET", "/items");
+    }
+
+    @Test
+    public void testDisabledCache() {
+        Router router = mock(Router.class);
+        Route route = mock(Route.class);
+        when(router.getRouteFor("POST", "/")).thenReturn(route);
+        RouteCache cache = new RouteCache(0, 60000, 5000);
+
+        cache.resolve(router, "POST", "/");
+        cache.resolve(router, "POST", "/");
+        verify(router, times(2)).getRouteFor("POST", "/");
+        assertThat(cache.resolve(router, "GET", "/")).isNull();
+        assertThat(cache.statistics()).containsEntry("enabled", false);
+    }
+}
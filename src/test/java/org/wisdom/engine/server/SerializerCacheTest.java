@@ -0,0 +1,59 @@
+/*
+ * #%L
+ * Wisdom-Framework
+ * %%
+ * Copyright (C) 2013 - 2014 Wisdom Framework
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.wisdom.engine.server;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.net.MediaType;
+import org.junit.Test;
+import org.wisdom.api.content.ContentEngine;
+import org.wisdom.api.content.ContentSerializer;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.*;
+
+/**
+ * Checks the memoization of the content serializer choices.
+ */
+public class SerializerCacheTest {
+
+    @Test
+    public void testChoicesAreMemoizedUntilInvalidated() {
+        ContentEngine engine = mock(ContentEngine.class);
+        ContentSerializer json = mock(ContentSerializer.class);
+        List<MediaType> types = ImmutableList.of(MediaType.JSON_UTF_8);
+        when(engine.getBestSerializer(types)).thenReturn(json);
+        SerializerCache cache = new SerializerCache();
+
+        assertThat(cache.forAccept(engine, "application/json", types)).isSameAs(json);
+        assertThat(cache.forAccept(engine, "application/json", types)).isSameAs(json);
+        verify(engine, times(1)).getBestSerializer(types);
+
+        // Missing serializers are not memoized, the serializer may not be known by the engine yet.
+        assertThat(cache.forContentType(engine, "text/unknown")).isNull();
+        assertThat(cache.forContentType(engine, "text/unknown")).isNull();
+        verify(engine, times(2)).getContentSerializerForContentType("text/unknown");
+
+        cache.invalidate();
+        assertThat(cache.forAccept(engine, "application/json", types)).isSameAs(json);
+        verify(engine, times(2)).getBestSerializer(types);
+    }
+}
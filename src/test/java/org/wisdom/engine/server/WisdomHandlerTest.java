@@ -0,0 +1,638 @@
+/*
+ * #%L
+ * Wisdom-Framework
+ * %%
+ * Copyright (C) 2013 - 2014 Wisdom Framework
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.wisdom.engine.server;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.*;
+import io.netty.util.Timeout;
+import io.netty.util.TimerTask;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.wisdom.api.configuration.ApplicationConfiguration;
+import org.wisdom.api.content.ContentEncodingHelper;
+import org.wisdom.api.content.ContentEngine;
+import org.wisdom.api.crypto.Crypto;
+import org.wisdom.api.http.AsyncResult;
+import org.wisdom.api.http.Result;
+import org.wisdom.api.http.Results;
+import org.wisdom.api.http.Status;
+import org.wisdom.api.router.Route;
+import org.wisdom.api.router.Router;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.*;
+
+/**
+ * Checks the request processing of the handler, using an embedded channel.
+ */
+public class WisdomHandlerTest {
+
+    private ApplicationConfiguration configuration;
+    private Router router;
+    private ServiceAccessor accessor;
+    private ConnectionTracker tracker;
+    private final List<InvocationExecutor> executors = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        configuration = mock(ApplicationConfiguration.class);
+        router = mock(Router.class);
+        ContentEngine engine = mock(ContentEngine.class);
+        when(engine.getContentEncodingHelper()).thenReturn(mock(ContentEncodingHelper.class));
+        accessor = new ServiceAccessor(mock(Crypto.class), configuration, router, engine, null, null);
+        tracker = new ConnectionTracker();
+    }
+
+    @After
+    public void tearDown() {
+        for (InvocationExecutor executor : executors) {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testOffloadedResponseIsWrittenOnTheEventLoop() throws Throwable {
+        InvocationExecutor invoker = pool(1, 1);
+        BlockingRoute slow = new BlockingRoute("slow");
+        route("/slow", slow);
+        EmbeddedChannel channel = channel(invoker);
+
+        send(channel, get("/slow"));
+        assertThat(channel.config().isAutoRead()).isFalse();
+        slow.complete(invoker);
+
+        assertThat(slow.thread).isNotSameAs(Thread.currentThread());
+        // The result is handed back to the event loop, nothing is written until its tasks run.
+        assertThat(channel.readOutbound()).isNull();
+        channel.runPendingTasks();
+        FullHttpResponse response = response(channel);
+        assertThat(response.getStatus()).isEqualTo(HttpResponseStatus.OK);
+        assertThat(body(response)).isEqualTo("slow");
+        assertThat(channel.config().isAutoRead()).isTrue();
+        assertThat(tracker.inFlight()).isZero();
+    }
+
+    @Test
+    public void testRejectionWhenTheQueueIsFull() throws Throwable {
+        InvocationExecutor invoker = pool(1, 1);
+        BlockingRoute slow = new BlockingRoute("slow");
+        route("/slow", slow);
+        EmbeddedChannel running = channel(invoker);
+        EmbeddedChannel queued = channel(invoker);
+        EmbeddedChannel rejected = channel(invoker);
+
+        send(running, get("/slow"));
+        slow.awaitStarted(1);
+        send(queued, get("/slow"));
+        send(rejected, get("/slow"));
+
+        // The rejection is answered immediately, on the event loop.
+        assertThat(response(rejected).getStatus()).isEqualTo(HttpResponseStatus.SERVICE_UNAVAILABLE);
+        assertThat(rejected.config().isAutoRead()).isTrue();
+        assertThat(invoker.statistics()).containsEntry("rejected", 1L);
+
+        slow.complete(invoker, 2);
+        running.runPendingTasks();
+        queued.runPendingTasks();
+        assertThat(response(running).getStatus()).isEqualTo(HttpResponseStatus.OK);
+        assertThat(response(queued).getStatus()).isEqualTo(HttpResponseStatus.OK);
+    }
+
+    @Test
+    public void testPipelinedRequestsAreReplayedInOrder() throws Throwable {
+        InvocationExecutor invoker = pool(1, 1, "/fast");
+        BlockingRoute slow = new BlockingRoute("slow");
+        route("/slow", slow);
+        route("/fast", new BlockingRoute("fast").released());
+        EmbeddedChannel channel = channel(invoker);
+
+        // The second request is decoded while the first one is offloaded, it is kept pending.
+        send(channel, get("/slow"), get("/fast"));
+        slow.awaitStarted(1);
+        assertThat(channel.readOutbound()).isNull();
+        slow.complete(invoker);
+
+        // Completing the first request replays the second one, which is invoked inline. Its response is flushed
+        // although no read batch completes.
+        channel.runPendingTasks();
+        assertThat(body(response(channel))).isEqualTo("slow");
+        assertThat(body(response(channel))).isEqualTo("fast");
+        assertThat(channel.readOutbound()).isNull();
+        assertThat(tracker.inFlight()).isZero();
+    }
+
+    @Test
+    public void testPipelinedOffloadedRequestsAreReplayed() throws Throwable {
+        InvocationExecutor invoker = pool(1, 1);
+        BlockingRoute slow = new BlockingRoute("slow");
+        route("/slow", slow);
+        EmbeddedChannel channel = channel(invoker);
+
+        send(channel, get("/slow"), get("/slow"));
+        slow.complete(invoker);
+        // The replayed request is offloaded in turn.
+        channel.runPendingTasks();
+        assertThat(body(response(channel))).isEqualTo("slow");
+        assertThat(channel.config().isAutoRead()).isFalse();
+
+        slow.complete(invoker, 2);
+        channel.runPendingTasks();
+        assertThat(body(response(channel))).isEqualTo("slow");
+        assertThat(channel.config().isAutoRead()).isTrue();
+        assertThat(tracker.inFlight()).isZero();
+    }
+
+    @Test
+    public void testInlineResponsesAreFlushedAtTheEndOfTheReadBatch() throws Throwable {
+        route("/fast", new BlockingRoute("fast").released());
+        EmbeddedChannel channel = channel(pool(0, 0));
+
+        channel.pipeline().fireChannelRead(get("/fast"));
+        channel.pipeline().fireChannelRead(LastHttpContent.EMPTY_LAST_CONTENT);
+        channel.pipeline().fireChannelRead(get("/fast"));
+        channel.pipeline().fireChannelRead(LastHttpContent.EMPTY_LAST_CONTENT);
+        // Written, but not flushed yet: the requests are still in progress.
+        assertThat(channel.readOutbound()).isNull();
+        assertThat(tracker.inFlight()).isEqualTo(2);
+
+        channel.pipeline().fireChannelReadComplete();
+        assertThat(body(response(channel))).isEqualTo("fast");
+        assertThat(body(response(channel))).isEqualTo("fast");
+        assertThat(tracker.inFlight()).isZero();
+    }
+
+    @Test
+    public void testAsyncResultOfABulkheadRouteTakesASingleSlot() throws Throwable {
+        // A single slot, and no queue: a second submission would be rejected.
+        InvocationExecutor executor = pool(1, 0);
+        Bulkheads bulkheads = new Bulkheads(ImmutableList.of(new Bulkheads.Bulkhead("reports",
+                ImmutableList.of("/report"), executor, 1, Status.SERVICE_UNAVAILABLE)));
+        final AtomicReference<Thread> computing = new AtomicReference<>();
+        BlockingRoute report = new BlockingRoute("report") {
+            @Override
+            Result result() {
+                return new AsyncResult(new Callable<Result>() {
+                    @Override
+                    public Result call() throws Exception {
+                        computing.set(Thread.currentThread());
+                        return Results.ok("computed");
+                    }
+                });
+            }
+        };
+        route("/report", report);
+        EmbeddedChannel channel = channel(pool(0, 0), bulkheads,
+                new RequestTimeouts(0, Collections.<String, Long>emptyMap(), true));
+
+        send(channel, get("/report"));
+        report.complete(executor);
+        channel.runPendingTasks();
+
+        FullHttpResponse response = response(channel);
+        assertThat(response.getStatus()).isEqualTo(HttpResponseStatus.OK);
+        assertThat(body(response)).isEqualTo("computed");
+        // Computed by the task having invoked the route.
+        assertThat(computing.get()).isSameAs(report.thread);
+        assertThat(executor.statistics()).containsEntry("rejected", 0L).containsEntry("submitted", 1L);
+        assertThat(channel.config().isAutoRead()).isTrue();
+        assertThat(tracker.inFlight()).isZero();
+    }
+
+    @Test
+    public void testLateAsyncResultIsDiscarded() throws Throwable {
+        tracker = spy(new ConnectionTracker());
+        InvocationExecutor executor = pool(1, 1);
+        Bulkheads bulkheads = new Bulkheads(ImmutableList.of(new Bulkheads.Bulkhead("reports",
+                ImmutableList.of("/report"), executor, 1, Status.SERVICE_UNAVAILABLE)));
+        ManualTimeouts timeouts = new ManualTimeouts(100);
+        AsyncRoute report = new AsyncRoute("report");
+        route("/report", report);
+        EmbeddedChannel channel = channel(pool(0, 0), bulkheads, timeouts);
+
+        send(channel, get("/report"));
+        report.complete(executor, 1, false);
+        // The async result is being computed, the deadline expires.
+        timeouts.awaitScheduled();
+        timeouts.expire();
+        channel.runPendingTasks();
+        assertThat(response(channel).getStatus()).isEqualTo(HttpResponseStatus.GATEWAY_TIMEOUT);
+        assertThat(timeouts.statistics()).containsEntry("GET /report", 1L);
+
+        // The result computed later is not written, and the request is not completed again.
+        report.compute(executor);
+        channel.runPendingTasks();
+        assertThat(channel.readOutbound()).isNull();
+        assertThat(channel.config().isAutoRead()).isTrue();
+        verify(tracker, times(1)).requestCompleted(channel);
+        assertThat(tracker.inFlight()).isZero();
+    }
+
+    @Test
+    public void testAsyncResultBeforeTheDeadline() throws Throwable {
+        InvocationExecutor executor = pool(1, 1);
+        Bulkheads bulkheads = new Bulkheads(ImmutableList.of(new Bulkheads.Bulkhead("reports",
+                ImmutableList.of("/report"), executor, 1, Status.SERVICE_UNAVAILABLE)));
+        ManualTimeouts timeouts = new ManualTimeouts(100);
+        AsyncRoute report = new AsyncRoute("report");
+        route("/report", report);
+        EmbeddedChannel channel = channel(pool(0, 0), bulkheads, timeouts);
+
+        send(channel, get("/report"));
+        report.complete(executor, 1, false);
+        timeouts.awaitScheduled();
+        report.compute(executor);
+        channel.runPendingTasks();
+        assertThat(body(response(channel))).isEqualTo("computed");
+
+        // The deadline has been completed by the result, its expiration does nothing.
+        timeouts.expire();
+        channel.runPendingTasks();
+        assertThat(channel.readOutbound()).isNull();
+        assertThat(timeouts.statistics()).isEmpty();
+        assertThat(tracker.inFlight()).isZero();
+    }
+
+    @Test
+    public void testDeclaredLengthOverTheLimit() throws Throwable {
+        maxLength(10);
+        Route upload = route("POST", "/upload", new BlockingRoute("upload").released());
+        EmbeddedChannel channel = channel(pool(0, 0));
+
+        HttpRequest request = post("/upload");
+        HttpHeaders.setContentLength(request, 100);
+        channel.writeInbound(request);
+
+        // Rejected before the body is read.
+        FullHttpResponse response = response(channel);
+        assertThat(response.getStatus()).isEqualTo(HttpResponseStatus.REQUEST_ENTITY_TOO_LARGE);
+        assertThat(response.headers().get(HttpHeaders.Names.CONNECTION)).isEqualTo(HttpHeaders.Values.CLOSE);
+        assertThat(channel.isOpen()).isFalse();
+        verify(upload, never()).invoke();
+        assertThat(tracker.inFlight()).isZero();
+    }
+
+    @Test
+    public void testChunkedBodyOverTheLimit() throws Throwable {
+        maxLength(10);
+        Route upload = route("POST", "/upload", new BlockingRoute("upload").released());
+        EmbeddedChannel channel = channel(pool(0, 0));
+
+        HttpRequest request = post("/upload");
+        HttpHeaders.setTransferEncodingChunked(request);
+        channel.writeInbound(request, chunk("12345678"));
+        assertThat(channel.readOutbound()).isNull();
+        channel.writeInbound(chunk("12345678"));
+
+        FullHttpResponse response = response(channel);
+        assertThat(response.getStatus()).isEqualTo(HttpResponseStatus.REQUEST_ENTITY_TOO_LARGE);
+        assertThat(channel.isOpen()).isFalse();
+        verify(upload, never()).invoke();
+        assertThat(tracker.inFlight()).isZero();
+    }
+
+    @Test
+    public void testDrainModeKeepsTheConnectionOpen() throws Throwable {
+        maxLength(10);
+        when(configuration.getWithDefault(eq("netty.request.max.length.action"), anyString())).thenReturn("drain");
+        Route upload = route("POST", "/upload", new BlockingRoute("upload").released());
+        route("/fast", new BlockingRoute("fast").released());
+        EmbeddedChannel channel = channel(pool(0, 0));
+
+        HttpRequest request = post("/upload");
+        HttpHeaders.setContentLength(request, 16);
+        channel.writeInbound(request);
+        FullHttpResponse response = response(channel);
+        assertThat(response.getStatus()).isEqualTo(HttpResponseStatus.REQUEST_ENTITY_TOO_LARGE);
+        assertThat(response.headers().get(HttpHeaders.Names.CONNECTION)).isEqualTo(HttpHeaders.Values.KEEP_ALIVE);
+
+        // The body is read and discarded, then the connection serves the next request.
+        channel.writeInbound(chunk("12345678"), new DefaultLastHttpContent(Unpooled.copiedBuffer("12345678",
+                Charsets.UTF_8)));
+        assertThat(channel.readOutbound()).isNull();
+        send(channel, get("/fast"));
+        assertThat(body(response(channel))).isEqualTo("fast");
+        assertThat(channel.isOpen()).isTrue();
+        verify(upload, never()).invoke();
+    }
+
+    @Test
+    public void testExpectContinueIsAccepted() throws Throwable {
+        route("POST", "/upload", new BlockingRoute("upload").released());
+        EmbeddedChannel channel = channel(pool(0, 0));
+
+        HttpRequest request = post("/upload");
+        HttpHeaders.setContentLength(request, 5);
+        HttpHeaders.set100ContinueExpected(request);
+        channel.writeInbound(request);
+        assertThat(response(channel).getStatus()).isEqualTo(HttpResponseStatus.CONTINUE);
+
+        channel.writeInbound(new DefaultLastHttpContent(Unpooled.copiedBuffer("hello", Charsets.UTF_8)));
+        FullHttpResponse response = response(channel);
+        assertThat(response.getStatus()).isEqualTo(HttpResponseStatus.OK);
+        assertThat(body(response)).isEqualTo("upload");
+        assertThat(channel.isOpen()).isTrue();
+    }
+
+    @Test
+    public void testExpectContinueOnAnUnboundRoute() throws Throwable {
+        Route unbound = route("POST", "/upload", new BlockingRoute("upload").released());
+        when(unbound.isUnbound()).thenReturn(true);
+        EmbeddedChannel channel = channel(pool(0, 0));
+
+        HttpRequest request = post("/upload");
+        HttpHeaders.setContentLength(request, 5);
+        HttpHeaders.set100ContinueExpected(request);
+        channel.writeInbound(request);
+
+        // No 100 Continue, the body is never sent.
+        FullHttpResponse response = response(channel);
+        assertThat(response.getStatus()).isEqualTo(HttpResponseStatus.NOT_FOUND);
+        assertThat(channel.readOutbound()).isNull();
+        assertThat(channel.isOpen()).isFalse();
+        verify(unbound, never()).invoke();
+        assertThat(tracker.inFlight()).isZero();
+    }
+
+    @Test
+    public void testStreamedBodyOverTheLimit() throws Throwable {
+        maxLength(10);
+        when(configuration.get("netty.streaming.paths")).thenReturn("/upload");
+        InvocationExecutor invoker = pool(1, 1);
+        BlockingRoute upload = new BlockingRoute("upload");
+        route("POST", "/upload", upload);
+        EmbeddedChannel channel = channel(invoker);
+
+        HttpRequest request = post("/upload");
+        HttpHeaders.setTransferEncodingChunked(request);
+        // The route is invoked on the head of the request, and the chunks are streamed.
+        channel.writeInbound(request, chunk("12345678"));
+        upload.awaitStarted(1);
+        assertThat(channel.readOutbound()).isNull();
+        channel.writeInbound(chunk("12345678"));
+
+        // Rejected like a buffered body.
+        FullHttpResponse response = response(channel);
+        assertThat(response.getStatus()).isEqualTo(HttpResponseStatus.REQUEST_ENTITY_TOO_LARGE);
+        assertThat(response.headers().get(HttpHeaders.Names.CONNECTION)).isEqualTo(HttpHeaders.Values.CLOSE);
+        assertThat(channel.isOpen()).isFalse();
+
+        // The response of the controller is discarded.
+        upload.complete(invoker);
+        channel.runPendingTasks();
+        assertThat(channel.readOutbound()).isNull();
+        assertThat(tracker.inFlight()).isZero();
+    }
+
+    void maxLength(int length) {
+        when(configuration.getIntegerWithDefault(eq("netty.request.max.length"), anyInt())).thenReturn(length);
+    }
+
+    InvocationExecutor pool(int threads, int queue, String... inline) {
+        InvocationExecutor executor = new InvocationExecutor("wisdom-test-invocation", threads, queue,
+                ImmutableList.copyOf(inline), true);
+        executors.add(executor);
+        return executor;
+    }
+
+    EmbeddedChannel channel(InvocationExecutor invoker) {
+        return channel(invoker, new Bulkheads(Collections.<Bulkheads.Bulkhead>emptyList()),
+                new RequestTimeouts(0, Collections.<String, Long>emptyMap(), true));
+    }
+
+    EmbeddedChannel channel(InvocationExecutor invoker, Bulkheads bulkheads, RequestTimeouts timeouts) {
+        return new EmbeddedChannel(new WisdomHandler(accessor, tracker, invoker, timeouts, bulkheads));
+    }
+
+    Route route(String path, Answer<Result> answer) throws Throwable {
+        return route("GET", path, answer);
+    }
+
+    Route route(String method, String path, Answer<Result> answer) throws Throwable {
+        Route route = mock(Route.class);
+        when(route.getHttpMethod()).thenReturn(method);
+        when(route.getUrl()).thenReturn(path);
+        when(route.invoke()).thenAnswer(answer);
+        when(router.getRouteFor(method, path)).thenReturn(route);
+        return route;
+    }
+
+    static HttpRequest get(String uri) {
+        return new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, uri);
+    }
+
+    static HttpRequest post(String uri) {
+        return new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST, uri);
+    }
+
+    static HttpContent chunk(String content) {
+        return new DefaultHttpContent(Unpooled.copiedBuffer(content, Charsets.UTF_8));
+    }
+
+    /**
+     * Sends the given requests (without body) in a single read batch, like pipelined requests.
+     */
+    static void send(EmbeddedChannel channel, HttpRequest... requests) {
+        List<Object> messages = new ArrayList<>();
+        for (HttpRequest request : requests) {
+            messages.add(request);
+            messages.add(LastHttpContent.EMPTY_LAST_CONTENT);
+        }
+        channel.writeInbound(messages.toArray());
+    }
+
+    static FullHttpResponse response(EmbeddedChannel channel) {
+        Object response = channel.readOutbound();
+        assertThat(response).isInstanceOf(FullHttpResponse.class);
+        return (FullHttpResponse) response;
+    }
+
+    static String body(FullHttpResponse response) {
+        return response.content().toString(Charsets.UTF_8);
+    }
+
+    /**
+     * Waits until the given executor has no running task. The tasks post the results to the event loop of the
+     * embedded channels, which must not be used by the test thread concurrently.
+     */
+    static void awaitIdle(InvocationExecutor executor) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (((Integer) executor.statistics().get("active")) > 0) {
+            assertThat(System.currentTimeMillis()).isLessThan(deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    /**
+     * A controller method answering its name. Each invocation blocks until the test releases it, so the tasks
+     * handing the results back to the event loop do not run while the test thread uses the embedded channel.
+     */
+    static class BlockingRoute implements Answer<Result> {
+        final String name;
+        final Semaphore permits = new Semaphore(0);
+        final AtomicInteger started = new AtomicInteger();
+        final AtomicInteger finished = new AtomicInteger();
+        volatile Thread thread;
+        private int released;
+
+        BlockingRoute(String name) {
+            this.name = name;
+        }
+
+        BlockingRoute released() {
+            permits.release(Integer.MAX_VALUE / 2);
+            return this;
+        }
+
+        @Override
+        public Result answer(InvocationOnMock invocation) throws Throwable {
+            thread = Thread.currentThread();
+            started.incrementAndGet();
+            if (!permits.tryAcquire(10, TimeUnit.SECONDS)) {
+                throw new IllegalStateException("The route has not been released");
+            }
+            finished.incrementAndGet();
+            return result();
+        }
+
+        Result result() {
+            return Results.ok(name);
+        }
+
+        void awaitStarted(int count) throws InterruptedException {
+            await(started, count);
+        }
+
+        /**
+         * Releases the first invocation and waits until the executor has handed its result back to the event loop.
+         */
+        void complete(InvocationExecutor executor) throws InterruptedException {
+            complete(executor, 1);
+        }
+
+        /**
+         * Releases the invocations up to the given total, and waits until the executor has handed their results
+         * back to the event loop.
+         */
+        void complete(InvocationExecutor executor, int total) throws InterruptedException {
+            complete(executor, total, true);
+        }
+
+        /**
+         * Releases the invocations up to the given total, and waits until they have returned. If asked, it also
+         * waits until the executor has handed their results back to the event loop.
+         */
+        void complete(InvocationExecutor executor, int total, boolean idle) throws InterruptedException {
+            permits.release(total - released);
+            released = total;
+            await(finished, total);
+            if (idle) {
+                awaitIdle(executor);
+            }
+        }
+
+        static void await(AtomicInteger counter, int count) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 10000;
+            while (counter.get() < count) {
+                assertThat(System.currentTimeMillis()).isLessThan(deadline);
+                Thread.sleep(5);
+            }
+        }
+    }
+
+    /**
+     * A controller method returning an async result. The computation of the result blocks until the test releases
+     * it.
+     */
+    static class AsyncRoute extends BlockingRoute {
+        final Semaphore computation = new Semaphore(0);
+
+        AsyncRoute(String name) {
+            super(name);
+        }
+
+        @Override
+        Result result() {
+            return new AsyncResult(new Callable<Result>() {
+                @Override
+                public Result call() throws Exception {
+                    if (!computation.tryAcquire(10, TimeUnit.SECONDS)) {
+                        throw new IllegalStateException("The computation has not been released");
+                    }
+                    return Results.ok("computed");
+                }
+            });
+        }
+
+        /**
+         * Releases the computation of the result, and waits until the executor has handed it back to the event
+         * loop.
+         */
+        void compute(InvocationExecutor executor) throws InterruptedException {
+            computation.release();
+            awaitIdle(executor);
+        }
+    }
+
+    /**
+     * Request deadlines expired by the test instead of a timer.
+     */
+    static class ManualTimeouts extends RequestTimeouts {
+        final List<TimerTask> tasks = new CopyOnWriteArrayList<>();
+        final AtomicInteger scheduled = new AtomicInteger();
+        final Timeout timeout = mock(Timeout.class);
+
+        ManualTimeouts(long timeout) {
+            super(timeout, Collections.<String, Long>emptyMap(), true);
+        }
+
+        @Override
+        public Timeout schedule(TimerTask task, long delay) {
+            tasks.add(task);
+            scheduled.incrementAndGet();
+            return timeout;
+        }
+
+        void awaitScheduled() throws InterruptedException {
+            BlockingRoute.await(scheduled, 1);
+        }
+
+        void expire() throws Exception {
+            for (TimerTask task : tasks) {
+                task.run(timeout);
+            }
+        }
+    }
+}
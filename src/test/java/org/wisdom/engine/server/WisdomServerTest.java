@@ -37,11 +37,18 @@ import org.wisdom.api.router.RouteBuilder;
 import org.wisdom.api.router.Router;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.Socket;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Matchers.*;
@@ -122,6 +129,7 @@ public class WisdomServerTest {
         ));
 
         server.start();
+        assertThat(server.ready().isSuccess()).isTrue();
         int port = server.httpPort();
         URL url = new URL("http://localhost:" + port + "/test");
         HttpURLConnection connection = (HttpURLConnection) url.openConnection();
@@ -294,4 +302,82 @@ public class WisdomServerTest {
         HttpURLConnection connection = (HttpURLConnection) url.openConnection();
         assertThat(connection.getResponseCode()).isEqualTo(500);
     }
+
+    @Test
+    public void testDrainWaitsForTheResponseToBeWritten() throws Exception {
+        ApplicationConfiguration configuration = mock(ApplicationConfiguration.class);
+        when(configuration.getIntegerWithDefault(eq("netty.http.port"), anyInt())).thenReturn(0);
+        when(configuration.getIntegerWithDefault(eq("netty.https.port"), anyInt())).thenReturn(-1);
+        when(configuration.getIntegerWithDefault(eq("netty.drain.timeout"), anyInt())).thenReturn(10000);
+
+        // A large response, so it cannot be written out until the client reads it.
+        char[] content = new char[8 * 1024 * 1024];
+        Arrays.fill(content, 'x');
+        final String large = new String(content);
+        final CountDownLatch release = new CountDownLatch(1);
+        Controller controller = new DefaultController() {
+            @SuppressWarnings("unused")
+            public Result index() throws InterruptedException {
+                release.await(10, TimeUnit.SECONDS);
+                return ok(large);
+            }
+        };
+        Router router = mock(Router.class);
+        Route route = new RouteBuilder().route(HttpMethod.GET)
+                .on("/")
+                .to(controller, "index");
+        when(router.getRouteFor("GET", "/")).thenReturn(route);
+        ContentEngine contentEngine = mock(ContentEngine.class);
+        when(contentEngine.getContentEncodingHelper()).thenReturn(mock(ContentEncodingHelper.class));
+
+        server = new WisdomServer(new ServiceAccessor(
+                null,
+                configuration,
+                router,
+                contentEngine,
+                null,
+                null
+        ));
+        server.start();
+
+        Socket socket = new Socket();
+        socket.setReceiveBufferSize(4096);
+        socket.connect(new InetSocketAddress("localhost", server.httpPort()));
+        try {
+            OutputStream out = socket.getOutputStream();
+            out.write("GET / HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes("UTF-8"));
+            out.flush();
+
+            final WisdomServer stopped = server;
+            server = null;
+            Thread stopper = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    stopped.stop();
+                }
+            });
+            stopper.start();
+            long deadline = System.currentTimeMillis() + 10000;
+            while (!((Boolean) stopped.connectionStatistics().get("draining"))) {
+                assertThat(System.currentTimeMillis()).isLessThan(deadline);
+                Thread.sleep(5);
+            }
+
+            // The response is written while the server drains, the client only reads it later.
+            release.countDown();
+            Thread.sleep(200);
+            InputStream in = socket.getInputStream();
+            String response = IOUtils.toString(in, "UTF-8");
+            stopper.join(10000);
+
+            assertThat(response).startsWith("HTTP/1.1 200 OK");
+            assertThat(response).contains("Connection: close");
+            // The whole content has been received before the connection is closed.
+            assertThat(response.length() - response.indexOf("\r\n\r\n") - 4).isEqualTo(large.length());
+            assertThat(stopper.isAlive()).isFalse();
+            assertThat(stopped.connectionStatistics()).containsEntry("drained", 1).containsEntry("forceClosed", 0);
+        } finally {
+            socket.close();
+        }
+    }
 }
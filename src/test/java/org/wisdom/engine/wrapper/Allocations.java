@@ -0,0 +1,88 @@
+/*
+ * #%L
+ * Wisdom-Framework
+ * %%
+ * Copyright (C) 2013 - 2014 Wisdom Framework
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.wisdom.engine.wrapper;
+
+import org.junit.Assume;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Measures the memory allocated by the current thread. The tests using it are skipped when the JVM does not
+ * support the measurement.
+ */
+final class Allocations {
+
+    /**
+     * The number of runs before the measurement, so the code is loaded and initialized.
+     */
+    private static final int WARM_UP = 5;
+
+    /**
+     * The number of measured runs. The lowest measure is kept.
+     */
+    private static final int RUNS = 5;
+
+    /**
+     * A measured task.
+     */
+    interface Task {
+        void run() throws Exception;
+    }
+
+    private Allocations() {
+        // Avoid direct instantiation.
+    }
+
+    /**
+     * Skips the current test if the JVM cannot measure the memory allocated by a thread.
+     */
+    static void assumeSupported() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) threads;
+        Assume.assumeTrue(bean.isThreadAllocatedMemorySupported());
+        if (!bean.isThreadAllocatedMemoryEnabled()) {
+            bean.setThreadAllocatedMemoryEnabled(true);
+        }
+    }
+
+    /**
+     * Runs the task a few times, and measures the memory it allocates.
+     *
+     * @param task the task
+     * @return the lowest number of bytes allocated by a run of the task
+     * @throws Exception if the task fails
+     */
+    static long measure(Task task) throws Exception {
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long id = Thread.currentThread().getId();
+        for (int i = 0; i < WARM_UP; i++) {
+            task.run();
+        }
+        long lowest = Long.MAX_VALUE;
+        for (int i = 0; i < RUNS; i++) {
+            long before = bean.getThreadAllocatedBytes(id);
+            task.run();
+            lowest = Math.min(lowest, bean.getThreadAllocatedBytes(id) - before);
+        }
+        return lowest;
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * #%L
+ * Wisdom-Framework
+ * %%
+ * Copyright (C) 2013 - 2014 Wisdom Framework
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.wisdom.engine.wrapper;
+
+import com.google.common.base.Charsets;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.*;
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Test;
+import org.wisdom.api.configuration.ApplicationConfiguration;
+import org.wisdom.api.cookies.Cookie;
+import org.wisdom.api.cookies.SessionCookie;
+import org.wisdom.api.crypto.Crypto;
+import org.wisdom.api.http.Result;
+import org.wisdom.api.http.Results;
+import org.wisdom.api.utils.CookieDataCodec;
+import org.wisdom.engine.server.ServiceAccessor;
+import org.wisdom.engine.wrapper.cookies.CookieSettings;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.*;
+
+/**
+ * Checks the behavior of the Context implementation.
+ */
+public class ContextFromNettyTest {
+
+    private Crypto crypto;
+    private ApplicationConfiguration configuration;
+    private ServiceAccessor accessor;
+
+    @Before
+    public void setUp() {
+        crypto = mock(Crypto.class);
+        when(crypto.sign(anyString())).thenReturn("signature");
+        configuration = mock(ApplicationConfiguration.class);
+        when(configuration.getWithDefault(Cookie.APPLICATION_COOKIE_PREFIX, "wisdom")).thenReturn("wisdom");
+        when(configuration.getIntegerWithDefault(SessionCookie.SESSION_EXPIRE_TIME_SECOND, 3600)).thenReturn(3600);
+        when(configuration.getBooleanWithDefault(SessionCookie.SESSION_SEND_ONLY_IF_CHANGED, true)).thenReturn(true);
+        accessor = new ServiceAccessor(crypto, configuration, null, null, null, null);
+    }
+
+    private ContextFromNetty context(String cookies) {
+        HttpRequest req = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/");
+        if (cookies != null) {
+            req.headers().set(HttpHeaders.Names.COOKIE, cookies);
+        }
+        return new ContextFromNetty(accessor, mock(ChannelHandlerContext.class), req);
+    }
+
+    @Test
+    public void testUntouchedSessionIsNotVerified() {
+        ContextFromNetty context = context("wisdom_SESSION=abc-___TS%3A1");
+        Result result = Results.ok();
+        context.saveFlashAndSession(result);
+        verify(crypto, never()).sign(anyString());
+        assertThat(result.getCookies()).isEmpty();
+    }
+
+    @Test
+    public void testModifiedSessionIsSaved() {
+        ContextFromNetty context = context(null);
+        context.session().put("user", "wisdom");
+        Result result = Results.ok();
+        context.saveFlashAndSession(result);
+        assertThat(result.getCookies()).hasSize(1);
+        assertThat(result.getCookies().get(0).name()).isEqualTo("wisdom_SESSION");
+        assertThat(result.getCookies().get(0).value()).startsWith("signature-");
+    }
+
+    @Test
+    public void testIncomingFlashIsCleared() {
+        ContextFromNetty context = context("wisdom_FLASH=message%3Ahello");
+        Result result = Results.ok();
+        context.saveFlashAndSession(result);
+        assertThat(result.getCookies()).hasSize(1);
+        assertThat(result.getCookies().get(0).name()).isEqualTo("wisdom_FLASH");
+        assertThat(result.getCookies().get(0).value()).isEmpty();
+    }
+
+    @Test
+    public void testVerifiedSessionsAreCached() throws Exception {
+        when(configuration.getIntegerWithDefault(CookieSettings.KEY_SESSION_CACHE_SIZE, 1024)).thenReturn(16);
+        Map<String, String> data = new HashMap<>();
+        data.put("user", "wisdom");
+        data.put("___TS", Long.toString(System.currentTimeMillis()));
+        String cookie = "wisdom_SESSION=signature-" + CookieDataCodec.encode(data);
+
+        assertThat(context(cookie).session().get("user")).isEqualTo("wisdom");
+        assertThat(context(cookie).session().get("user")).isEqualTo("wisdom");
+        verify(crypto, times(1)).sign(anyString());
+    }
+
+    /**
+     * Creates the context of a POST request with the given content type, and appends the given chunks to its body.
+     */
+    private ContextFromNetty post(String contentType, ByteBuf... chunks) {
+        when(configuration.getIntegerWithDefault(eq("request.body.max.size"), anyInt())).thenReturn(100 * 1024);
+        when(configuration.getIntegerWithDefault(eq("netty.request.body.spill.threshold"), anyInt()))
+                .thenReturn(1024 * 1024);
+        HttpRequest req = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST, "/");
+        if (contentType != null) {
+            req.headers().set(HttpHeaders.Names.CONTENT_TYPE, contentType);
+        }
+        ChannelHandlerContext ctx = mock(ChannelHandlerContext.class);
+        when(ctx.alloc()).thenReturn(UnpooledByteBufAllocator.DEFAULT);
+        ContextFromNetty context = new ContextFromNetty(accessor, ctx, req);
+        for (ByteBuf chunk : chunks) {
+            context.appendContent(req, new DefaultHttpContent(chunk), true);
+        }
+        return context;
+    }
+
+    private static ByteBuf chunk(String content, Charset charset) {
+        return Unpooled.copiedBuffer(content, charset);
+    }
+
+    @Test
+    public void testBodyIsReadWithTheDeclaredCharset() throws IOException {
+        Charset latin = Charsets.ISO_8859_1;
+        ByteBuf first = chunk("caf", latin);
+        ByteBuf second = chunk("\u00e9 cr\u00e8me", latin);
+        ContextFromNetty context = post("text/plain; charset=ISO-8859-1", first, second);
+
+        assertThat(context.body()).isEqualTo("caf\u00e9 cr\u00e8me");
+        assertThat(context.reader().readLine()).isEqualTo("caf\u00e9 cr\u00e8me");
+        try (InputStream stream = context.stream()) {
+            assertThat(IOUtils.toString(stream, "ISO-8859-1")).isEqualTo("caf\u00e9 cr\u00e8me");
+        }
+        context.cleanup();
+    }
+
+    @Test
+    public void testBodyIsReadWithUtf8ByDefault() throws IOException {
+        // The 2 bytes of the accented character are split across the chunks.
+        byte[] encoded = "caf\u00e9".getBytes(Charsets.UTF_8);
+        ContextFromNetty context = post("text/plain", Unpooled.copiedBuffer(encoded, 0, 4),
+                Unpooled.copiedBuffer(encoded, 4, 1));
+
+        assertThat(context.body()).isEqualTo("caf\u00e9");
+        assertThat(context.reader().readLine()).isEqualTo("caf\u00e9");
+        context.cleanup();
+    }
+
+    @Test
+    public void testBodyIsReadFromTheReceivedBuffers() throws IOException {
+        ByteBuf first = chunk("hello ", Charsets.UTF_8);
+        ByteBuf second = chunk("world", Charsets.UTF_8);
+        ContextFromNetty context = post(null, first, second);
+
+        // The body is not copied: a change of the received buffers is visible.
+        second.setByte(0, 'W');
+        assertThat(context.body()).isEqualTo("hello World");
+        assertThat(context.reader().readLine()).isEqualTo("hello World");
+        try (InputStream stream = context.stream()) {
+            assertThat(IOUtils.toString(stream, "UTF-8")).isEqualTo("hello World");
+        }
+        assertThat(second.refCnt()).isEqualTo(2);
+
+        context.cleanup();
+        assertThat(first.refCnt()).isEqualTo(1);
+        assertThat(second.refCnt()).isEqualTo(1);
+    }
+}
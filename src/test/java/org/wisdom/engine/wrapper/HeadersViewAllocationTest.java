@@ -0,0 +1,127 @@
+/*
+ * #%L
+ * Wisdom-Framework
+ * %%
+ * Copyright (C) 2013 - 2014 Wisdom Framework
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.wisdom.engine.wrapper;
+
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpVersion;
+import org.junit.Before;
+import org.junit.Test;
+import org.wisdom.api.http.HeaderNames;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Measures the memory allocated to look up a few headers of a request carrying 20 headers, through the view of the
+ * Netty headers, and through a copy of the headers (as {@link RequestFromNetty#headers()} used to do).
+ */
+public class HeadersViewAllocationTest {
+
+    /**
+     * The number of requests per measure.
+     */
+    private static final int REQUESTS = 1000;
+
+    private HttpRequest request;
+
+    /**
+     * The number of headers found by the last measured run.
+     */
+    private int found;
+
+    @Before
+    public void setUp() {
+        Allocations.assumeSupported();
+        request = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/");
+        HttpHeaders headers = request.headers();
+        headers.add(HeaderNames.HOST, "localhost:9000");
+        headers.add(HeaderNames.ACCEPT, "text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8");
+        headers.add(HeaderNames.ACCEPT_ENCODING, "gzip, deflate");
+        headers.add(HeaderNames.ACCEPT_LANGUAGE, "en-US,en;q=0.5");
+        headers.add(HeaderNames.USER_AGENT, "Mozilla/5.0 (X11; Linux x86_64; rv:31.0) Gecko/20100101 Firefox/31.0");
+        headers.add(HeaderNames.CONNECTION, "keep-alive");
+        headers.add(HeaderNames.CACHE_CONTROL, "max-age=0");
+        headers.add(HeaderNames.REFERER, "http://localhost:9000/");
+        for (int i = headers.names().size(); i < 20; i++) {
+            headers.add("X-Custom-" + i, "value-" + i);
+        }
+        assertThat(headers.names()).hasSize(20);
+    }
+
+    private int lookup(Map<String, List<String>> headers) {
+        int count = 0;
+        if (headers.get(HeaderNames.ACCEPT) != null) {
+            count++;
+        }
+        if (headers.get(HeaderNames.ACCEPT_ENCODING) != null) {
+            count++;
+        }
+        if (headers.containsKey(HeaderNames.HOST)) {
+            count++;
+        }
+        if (headers.containsKey(HeaderNames.X_FORWARD_FOR)) {
+            count++;
+        }
+        return count;
+    }
+
+    private static Map<String, List<String>> copy(HttpHeaders headers) {
+        Map<String, List<String>> copy = new HashMap<>();
+        for (String name : headers.names()) {
+            copy.put(name, headers.getAll(name));
+        }
+        return copy;
+    }
+
+    @Test
+    public void testLookupsDoNotCopyTheHeaders() throws Exception {
+        long view = Allocations.measure(new Allocations.Task() {
+            @Override
+            public void run() {
+                found = 0;
+                for (int i = 0; i < REQUESTS; i++) {
+                    found += lookup(new RequestFromNetty(null, null, request).headers());
+                }
+            }
+        });
+        assertThat(found).isEqualTo(3 * REQUESTS);
+
+        long copy = Allocations.measure(new Allocations.Task() {
+            @Override
+            public void run() {
+                found = 0;
+                for (int i = 0; i < REQUESTS; i++) {
+                    new RequestFromNetty(null, null, request);
+                    found += lookup(copy(request.headers()));
+                }
+            }
+        });
+        assertThat(found).isEqualTo(3 * REQUESTS);
+
+        assertThat(view).as("allocated for " + REQUESTS + " requests: " + view + " bytes through the view, "
+                + copy + " bytes through a copy").isLessThan(copy / 2);
+    }
+}
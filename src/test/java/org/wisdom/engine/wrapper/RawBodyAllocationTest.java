@@ -0,0 +1,147 @@
+/*
+ * #%L
+ * Wisdom-Framework
+ * %%
+ * Copyright (C) 2013 - 2014 Wisdom Framework
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.wisdom.engine.wrapper;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.InputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Measures the memory allocated to accumulate and read request bodies of 1 KB, 100 KB and 5 MB. Reading the body
+ * as a stream must not copy it, while reading it as an array copies it once.
+ */
+public class RawBodyAllocationTest {
+
+    /**
+     * The size of the received chunks.
+     */
+    private static final int CHUNK = 8 * 1024;
+
+    /**
+     * The allocations that do not depend on the size of the body (composite buffer, stream...).
+     */
+    private static final long FIXED = 64 * 1024;
+
+    /**
+     * The buffer used to read the streams. It is shared so it is not counted in the measures.
+     */
+    private final byte[] read = new byte[CHUNK];
+
+    /**
+     * The number of bytes read by the last measured run.
+     */
+    private long total;
+
+    @Before
+    public void setUp() {
+        Allocations.assumeSupported();
+    }
+
+    /**
+     * Creates the chunks of a body of the given size. The chunks are created before the measures, as they are
+     * allocated by the transport, not by the body.
+     */
+    private static ByteBuf[] chunks(int size) {
+        byte[] content = new byte[size];
+        for (int i = 0; i < size; i++) {
+            content[i] = (byte) ('a' + i % 26);
+        }
+        ByteBuf[] chunks = new ByteBuf[(size + CHUNK - 1) / CHUNK];
+        for (int i = 0; i < chunks.length; i++) {
+            int offset = i * CHUNK;
+            chunks[i] = Unpooled.wrappedBuffer(content, offset, Math.min(CHUNK, size - offset));
+        }
+        return chunks;
+    }
+
+    private static RawBody body(ByteBuf[] chunks) {
+        // The threshold is above the largest body, the bodies are kept in memory.
+        RawBody body = new RawBody(UnpooledByteBufAllocator.DEFAULT, 16 * 1024 * 1024);
+        for (ByteBuf chunk : chunks) {
+            body.append(chunk);
+        }
+        return body;
+    }
+
+    private long stream(int size) throws Exception {
+        final ByteBuf[] chunks = chunks(size);
+        long allocated = Allocations.measure(new Allocations.Task() {
+            @Override
+            public void run() throws Exception {
+                RawBody body = body(chunks);
+                total = 0;
+                try (InputStream stream = body.stream()) {
+                    int count;
+                    while ((count = stream.read(read)) != -1) {
+                        total += count;
+                    }
+                }
+                body.release();
+            }
+        });
+        assertThat(total).isEqualTo(size);
+        return allocated;
+    }
+
+    private long bytes(int size) throws Exception {
+        final ByteBuf[] chunks = chunks(size);
+        long allocated = Allocations.measure(new Allocations.Task() {
+            @Override
+            public void run() throws Exception {
+                RawBody body = body(chunks);
+                total = body.bytes().length;
+                body.release();
+            }
+        });
+        assertThat(total).isEqualTo(size);
+        return allocated;
+    }
+
+    private void check(int size) throws Exception {
+        long stream = stream(size);
+        long bytes = bytes(size);
+        String measures = "allocated for " + size + " bytes: " + stream + " bytes as a stream, " + bytes
+                + " bytes as an array";
+        assertThat(stream).as(measures).isLessThan(FIXED + size / 8);
+        assertThat(bytes).as(measures).isGreaterThanOrEqualTo(size);
+        assertThat(stream).as(measures).isLessThan(bytes);
+    }
+
+    @Test
+    public void test1KB() throws Exception {
+        check(1024);
+    }
+
+    @Test
+    public void test100KB() throws Exception {
+        check(100 * 1024);
+    }
+
+    @Test
+    public void test5MB() throws Exception {
+        check(5 * 1024 * 1024);
+    }
+}
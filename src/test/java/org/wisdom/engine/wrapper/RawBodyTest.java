@@ -0,0 +1,166 @@
+/*
+ * #%L
+ * Wisdom-Framework
+ * %%
+ * Copyright (C) 2013 - 2014 Wisdom Framework
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.wisdom.engine.wrapper;
+
+import com.google.common.base.Charsets;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Checks the storage of the raw bodies, in memory and on disk.
+ */
+public class RawBodyTest {
+
+    private static RawBody body(long threshold) {
+        return new RawBody(UnpooledByteBufAllocator.DEFAULT, threshold);
+    }
+
+    private static ByteBuf chunk(String content) {
+        return Unpooled.copiedBuffer(content, Charsets.UTF_8);
+    }
+
+    @Test
+    public void testAppendWithoutCopy() {
+        RawBody body = body(1024);
+        ByteBuf chunk = chunk("hello");
+        chunk.readByte();
+        body.append(chunk);
+
+        // The readable bytes are retained, the reader index is not modified.
+        assertThat(chunk.refCnt()).isEqualTo(2);
+        assertThat(chunk.readerIndex()).isEqualTo(1);
+        assertThat(body.size()).isEqualTo(4);
+        // The body shares the memory of the chunk.
+        chunk.setByte(1, 'a');
+        assertThat(body.asString(Charsets.UTF_8)).isEqualTo("allo");
+        assertThat(body.isSpilled()).isFalse();
+
+        body.release();
+        assertThat(chunk.refCnt()).isEqualTo(1);
+    }
+
+    @Test
+    public void testReadInMemory() throws IOException {
+        RawBody body = body(1024);
+        body.append(chunk("hello "));
+        body.append(Unpooled.EMPTY_BUFFER);
+        body.append(chunk("world"));
+
+        assertThat(body.size()).isEqualTo(11);
+        assertThat(body.asString(Charsets.UTF_8)).isEqualTo("hello world");
+        assertThat(new String(body.bytes(), Charsets.UTF_8)).isEqualTo("hello world");
+        // The array is computed once.
+        assertThat(body.bytes()).isSameAs(body.bytes());
+        try (InputStream stream = body.stream()) {
+            assertThat(IOUtils.toString(stream, "UTF-8")).isEqualTo("hello world");
+        }
+        body.release();
+    }
+
+    @Test
+    public void testSpillPastTheThreshold() throws IOException {
+        RawBody body = body(8);
+        ByteBuf first = chunk("12345");
+        ByteBuf second = chunk("67890");
+        body.append(first);
+        assertThat(body.isSpilled()).isFalse();
+
+        body.append(second);
+        assertThat(body.isSpilled()).isTrue();
+        // The buffers are released once written to the file.
+        assertThat(first.refCnt()).isEqualTo(1);
+        assertThat(second.refCnt()).isEqualTo(1);
+
+        // The following chunks are appended to the file, without being retained.
+        ByteBuf third = chunk("abc");
+        body.append(third);
+        assertThat(third.refCnt()).isEqualTo(1);
+        assertThat(body.size()).isEqualTo(13);
+
+        assertThat(new String(body.bytes(), Charsets.UTF_8)).isEqualTo("1234567890abc");
+        assertThat(body.asString(Charsets.UTF_8)).isEqualTo("1234567890abc");
+        try (InputStream stream = body.stream()) {
+            assertThat(IOUtils.toString(stream, "UTF-8")).isEqualTo("1234567890abc");
+        }
+        body.release();
+    }
+
+    @Test
+    public void testStreamAfterASpill() throws IOException {
+        RawBody body = body(4);
+        body.append(chunk("hello"));
+        body.append(chunk(" world"));
+        try (InputStream stream = body.stream()) {
+            assertThat(IOUtils.toString(stream, "UTF-8")).isEqualTo("hello world");
+        }
+        assertThat(body.asString(Charsets.UTF_8)).isEqualTo("hello world");
+        body.release();
+    }
+
+    @Test
+    public void testContent() {
+        RawBody body = body(1024);
+        ByteBuf chunk = chunk("a=1");
+        body.append(chunk);
+        ByteBuf content = body.content();
+        assertThat(content.toString(Charsets.UTF_8)).isEqualTo("a=1");
+        // Shared, not retained.
+        assertThat(chunk.refCnt()).isEqualTo(2);
+        body.release();
+
+        RawBody spilled = body(2);
+        spilled.append(chunk("a=1&b=2"));
+        assertThat(spilled.content().toString(Charsets.UTF_8)).isEqualTo("a=1&b=2");
+        spilled.release();
+    }
+
+    @Test
+    public void testReleaseDeletesTheFile() {
+        RawBody body = body(4);
+        body.append(chunk("hello world"));
+        File file = body.file();
+        assertThat(file).isNotNull();
+        assertThat(file.isFile()).isTrue();
+
+        body.release();
+        assertThat(file.exists()).isFalse();
+        assertThat(body.file()).isNull();
+        assertThat(body.isSpilled()).isFalse();
+    }
+
+    @Test
+    public void testEmptyBody() throws IOException {
+        RawBody body = body(4);
+        assertThat(body.bytes()).isEmpty();
+        assertThat(body.asString(Charsets.UTF_8)).isEmpty();
+        try (InputStream stream = body.stream()) {
+            assertThat(stream.read()).isEqualTo(-1);
+        }
+    }
+}
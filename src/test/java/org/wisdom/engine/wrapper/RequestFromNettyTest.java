@@ -30,9 +30,11 @@ import org.wisdom.api.http.MimeTypes;
 import org.wisdom.engine.server.ServiceAccessor;
 
 import java.net.InetSocketAddress;
+import java.util.Collections;
 import java.util.Locale;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
@@ -107,7 +109,6 @@ public class RequestFromNettyTest {
 
         // Now if we remove the header, it should use the remote address
         req.headers().clear();
-        request.headers().clear();
         assertThat(request.remoteAddress()).isEqualTo("1.2.3.4");
     }
 
@@ -214,6 +215,24 @@ public class RequestFromNettyTest {
         assertThat(request.cookie("GeoIP")).isNull();
     }
 
+    @Test
+    public void testCookiesRequiringTheDecoder() throws Exception {
+        HttpRequest req = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/");
+        req.headers().set(HttpHeaders.Names.COOKIE, "a=1; quoted=\"hello world\"; empty=");
+        RequestFromNetty request = new RequestFromNetty(null, null, req);
+        assertThat(request.cookie("missing")).isNull();
+        assertThat(request.cookie("quoted").value()).isEqualTo("hello world");
+        assertThat(request.cookie("a").value()).isEqualTo("1");
+        assertThat(request.cookie("empty").value()).isEmpty();
+
+        req = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/");
+        req.headers().set(HttpHeaders.Names.COOKIE, "a=1; b = 2 ;c=3");
+        request = new RequestFromNetty(null, null, req);
+        assertThat(request.cookie("b").value()).isEqualTo("2");
+        assertThat(request.cookie("c").value()).isEqualTo("3");
+        assertThat(request.cookie("d")).isNull();
+    }
+
     @Test
     public void testHeaders() throws Exception {
         HttpRequest req = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/");
@@ -228,6 +247,30 @@ public class RequestFromNettyTest {
         assertThat(request.headers().get("missing")).isNull();
     }
 
+    @Test
+    public void testHeadersView() throws Exception {
+        HttpRequest req = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/");
+        req.headers().add(HeaderNames.ACCEPT_LANGUAGE, "en-US");
+        req.headers().add("test", "a").add("test", "b");
+        RequestFromNetty request = new RequestFromNetty(null, null, req);
+
+        assertThat(request.headers()).hasSize(2);
+        assertThat(request.headers().containsKey("accept-language")).isTrue();
+        assertThat(request.headers().get("TEST")).containsExactly("a", "b");
+        assertThat(request.headers().keySet()).contains(HeaderNames.ACCEPT_LANGUAGE, "test");
+
+        // The view follows the Netty headers.
+        req.headers().add("late", "c");
+        assertThat(request.headers().get("late")).containsExactly("c");
+
+        try {
+            request.headers().put("other", Collections.singletonList("d"));
+            fail("The headers must be read-only");
+        } catch (UnsupportedOperationException e) {
+            // Expected.
+        }
+    }
+
     @Test
     public void testParameter() throws Exception {
         ChannelHandlerContext ctx = mock(ChannelHandlerContext.class);
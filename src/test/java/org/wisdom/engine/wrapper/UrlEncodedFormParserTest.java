@@ -0,0 +1,112 @@
+/*
+ * #%L
+ * Wisdom-Framework
+ * %%
+ * Copyright (C) 2013 - 2014 Wisdom Framework
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.wisdom.engine.wrapper;
+
+import com.google.common.base.Charsets;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Checks the url-encoded form parser.
+ */
+public class UrlEncodedFormParserTest {
+
+    private Map<String, List<String>> parse(String body) {
+        Map<String, List<String>> form = new HashMap<>();
+        UrlEncodedFormParser.parse(body.getBytes(Charsets.UTF_8), Charsets.UTF_8, form);
+        return form;
+    }
+
+    @Test
+    public void testPlainFields() {
+        Map<String, List<String>> form = parse("name=wisdom&version=1");
+        assertThat(form).hasSize(2);
+        assertThat(form.get("name")).containsExactly("wisdom");
+        assertThat(form.get("version")).containsExactly("1");
+    }
+
+    @Test
+    public void testEscapedFields() {
+        Map<String, List<String>> form = parse("q=hello+world&city=Gen%C3%A8ve&a%26b=%3D");
+        assertThat(form.get("q")).containsExactly("hello world");
+        assertThat(form.get("city")).containsExactly("Genève");
+        assertThat(form.get("a&b")).containsExactly("=");
+    }
+
+    @Test
+    public void testRepeatedAndEmptyFields() {
+        Map<String, List<String>> form = parse("tag=a&&tag=b&empty=&flag&=ignored");
+        assertThat(form.get("tag")).containsExactly("a", "b");
+        assertThat(form.get("empty")).containsExactly("");
+        assertThat(form.get("flag")).containsExactly("");
+        assertThat(form).hasSize(3);
+    }
+
+    @Test
+    public void testInvalidEscapes() {
+        Map<String, List<String>> form = parse("a=100%&b=%zz&c=%4");
+        assertThat(form.get("a")).containsExactly("100%");
+        assertThat(form.get("b")).containsExactly("%zz");
+        assertThat(form.get("c")).containsExactly("%4");
+    }
+
+    @Test
+    public void testCompositeBuffer() {
+        // The fields and the escape sequences span several components.
+        CompositeByteBuf body = Unpooled.compositeBuffer();
+        body.addComponent(Unpooled.copiedBuffer("city=Gen%C", Charsets.UTF_8));
+        body.addComponent(Unpooled.copiedBuffer("3%A8ve&na", Charsets.UTF_8));
+        body.addComponent(Unpooled.copiedBuffer("me=wisdom", Charsets.UTF_8));
+        body.writerIndex(body.capacity());
+        Map<String, List<String>> form = new HashMap<>();
+
+        UrlEncodedFormParser.parse(body, Charsets.UTF_8, form);
+        assertThat(form.get("city")).containsExactly("Genève");
+        assertThat(form.get("name")).containsExactly("wisdom");
+        // The indexes of the buffer are not modified.
+        assertThat(body.readerIndex()).isZero();
+        assertThat(body.writerIndex()).isEqualTo(body.capacity());
+        body.release();
+    }
+
+    @Test
+    public void testOnlyTheReadableBytesAreParsed() {
+        ByteBuf body = Unpooled.copiedBuffer("ignored=1&q=a+b", Charsets.UTF_8);
+        body.readerIndex("ignored=1&".length());
+        Map<String, List<String>> form = new HashMap<>();
+
+        UrlEncodedFormParser.parse(body, Charsets.UTF_8, form);
+        assertThat(form).hasSize(1);
+        assertThat(form.get("q")).containsExactly("a b");
+    }
+
+    @Test
+    public void testEmptyBody() {
+        assertThat(parse("")).isEmpty();
+    }
+}